@@ -0,0 +1,102 @@
+package com.simpleplus.telegram.bots.benchmark;
+
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.Step;
+import com.simpleplus.telegram.bots.datamodel.UserState;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the boxed maps formerly used for chat-indexed state with the primitive {@code long}-keyed maps of fastutil,
+ * on lookups of random chats, half of which are missing.
+ * <p>
+ * The heap taken by the maps is measured once per fork, after a full GC, and printed in the output of the fork. Chat
+ * IDs are random, as the ones of Telegram are sparse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ChatMapBenchmark {
+    @Param({"boxed", "primitive"})
+    public String maps;
+
+    @Param({"1000000"})
+    public int chats;
+
+    private Map<Long, UserState> boxedUserStates;
+    private Map<Long, Integer> boxedExceptionCounts;
+    private Long2ObjectOpenHashMap<UserState> userStates;
+    private Long2IntOpenHashMap exceptionCounts;
+    private long[] lookups;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        long[] chatIds = new long[chats];
+        for (int i = 0; i < chats; i++) {
+            chatIds[i] = random.nextLong();
+        }
+
+        long before = usedHeap();
+        if (maps.equals("boxed")) {
+            boxedUserStates = new HashMap<>();
+            boxedExceptionCounts = new HashMap<>();
+            for (long chatId : chatIds) {
+                boxedUserStates.put(chatId, newUserState(random));
+                boxedExceptionCounts.put(chatId, random.nextInt(3));
+            }
+        } else {
+            userStates = new Long2ObjectOpenHashMap<>();
+            exceptionCounts = new Long2IntOpenHashMap();
+            for (long chatId : chatIds) {
+                userStates.put(chatId, newUserState(random));
+                exceptionCounts.put(chatId, random.nextInt(3));
+            }
+        }
+        System.out.printf("%n%s maps of %d chats: %d MB%n", maps, chats, (usedHeap() - before) >> 20);
+
+        lookups = new long[1 << 16];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = random.nextBoolean() ? chatIds[random.nextInt(chats)] : random.nextLong();
+        }
+    }
+
+    private static UserState newUserState(Random random) {
+        return new UserState(new Coordinates(random.nextDouble() * 120 - 60, random.nextDouble() * 360 - 180),
+                Step.RUNNING, false);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Benchmark
+    public UserState userStateLookup() {
+        long chatId = lookups[next++ & (lookups.length - 1)];
+        return boxedUserStates != null ? boxedUserStates.get(chatId) : userStates.get(chatId);
+    }
+
+    @Benchmark
+    public int exceptionCountLookup() {
+        long chatId = lookups[next++ & (lookups.length - 1)];
+        if (boxedExceptionCounts != null) {
+            Integer exceptionCount = boxedExceptionCounts.get(chatId);
+            return exceptionCount != null ? exceptionCount : 0;
+        }
+        return exceptionCounts.get(chatId);
+    }
+}
@@ -0,0 +1,159 @@
+package com.simpleplus.telegram.bots.benchmark;
+
+import com.simpleplus.telegram.bots.components.persistence.SchemaMigrator;
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the queries issued by the bot on a database with and without the indexes of {@link SchemaMigrator}.
+ * <p>
+ * The tables are the ones generated by {@code hbm2ddl}, including the foreign key on {@code UserAlert.CHAT_ID}.
+ * Chats are 90% running, 5% stopped and 5% expired; one chat in a thousand is an administrator's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaIndexBenchmark {
+    private static final int PAGE_SIZE = 500;
+
+    @Param({"false", "true"})
+    public boolean migrated;
+
+    @Param({"100000"})
+    public int chats;
+
+    private Connection connection;
+    private PreparedStatement alertsOfChat;
+    private PreparedStatement runningChatsPage;
+    private PreparedStatement adminChatsPage;
+    private PreparedStatement chatsInCell;
+    private final Random random = new Random(42);
+    private long[] cells;
+
+    @Setup
+    public void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:schema_index_benchmark_" + migrated, "sa", "");
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE SavedChat (CHAT_ID BIGINT PRIMARY KEY, isAdmin BOOLEAN NOT NULL, " +
+                    "latitude DOUBLE NOT NULL, longitude DOUBLE NOT NULL, step VARCHAR(255), " +
+                    "COORDINATE_CELL BIGINT)");
+            statement.execute("CREATE TABLE UserAlert (id BIGINT PRIMARY KEY, CHAT_ID BIGINT, delay BIGINT, " +
+                    "timeType VARCHAR(255), FOREIGN KEY (CHAT_ID) REFERENCES SavedChat(CHAT_ID))");
+            // Not measured, but indexed by the migrations as well
+            statement.execute("CREATE TABLE SavedTimes (id BIGINT PRIMARY KEY, CHAT_ID BIGINT, TIMES_DATE DATE, " +
+                    "COORDINATE_CELL BIGINT, TIMES VARCHAR(2048))");
+            statement.execute("CREATE TABLE PendingAlert (id BIGINT PRIMARY KEY, CHAT_ID BIGINT, ALERT_ID BIGINT, " +
+                    "FIRE_TIME BIGINT, MESSAGE VARCHAR(1024), SCHEDULED_AT BIGINT)");
+        }
+
+        fill();
+
+        if (migrated) {
+            new SchemaMigrator().migrate(connection);
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE");
+        }
+
+        alertsOfChat = connection.prepareStatement("SELECT id, CHAT_ID, delay, timeType FROM UserAlert " +
+                "WHERE CHAT_ID = ?");
+        runningChatsPage = connection.prepareStatement("SELECT CHAT_ID, step, latitude, longitude, isAdmin " +
+                "FROM SavedChat WHERE CHAT_ID > ? AND step IN ('RUNNING', 'TO_ENTER_SUPPORT_MESSAGE') " +
+                "ORDER BY CHAT_ID LIMIT " + PAGE_SIZE);
+        adminChatsPage = connection.prepareStatement("SELECT CHAT_ID, step, latitude, longitude, isAdmin " +
+                "FROM SavedChat WHERE CHAT_ID > ? AND step <> 'EXPIRED' AND isAdmin = TRUE " +
+                "ORDER BY CHAT_ID LIMIT " + PAGE_SIZE);
+        chatsInCell = connection.prepareStatement("SELECT CHAT_ID FROM SavedChat WHERE COORDINATE_CELL = ?");
+    }
+
+    private void fill() throws SQLException {
+        cells = new long[chats];
+        connection.setAutoCommit(false);
+
+        try (PreparedStatement insertChat =
+                     connection.prepareStatement("INSERT INTO SavedChat VALUES (?, ?, ?, ?, ?, ?)");
+             PreparedStatement insertAlert =
+                     connection.prepareStatement("INSERT INTO UserAlert VALUES (?, ?, 0, ?)")) {
+            for (int i = 0; i < chats; i++) {
+                Coordinates coordinates =
+                        new Coordinates(random.nextDouble() * 120 - 60, random.nextDouble() * 360 - 180);
+                int step = random.nextInt(100);
+                cells[i] = coordinates.toCell();
+
+                insertChat.setLong(1, i);
+                insertChat.setBoolean(2, i % 1000 == 0);
+                insertChat.setDouble(3, coordinates.getLatitude());
+                insertChat.setDouble(4, coordinates.getLongitude());
+                insertChat.setString(5, step < 90 ? "RUNNING" : step < 95 ? "STOPPED" : "EXPIRED");
+                insertChat.setLong(6, cells[i]);
+                insertChat.addBatch();
+
+                for (String timeType : new String[]{"SUNRISE", "SUNSET"}) {
+                    insertAlert.setLong(1, 2L * i + (timeType.equals("SUNRISE") ? 0 : 1));
+                    insertAlert.setLong(2, i);
+                    insertAlert.setString(3, timeType);
+                    insertAlert.addBatch();
+                }
+
+                if (i % 1000 == 999) {
+                    insertChat.executeBatch();
+                    insertAlert.executeBatch();
+                }
+            }
+            insertChat.executeBatch();
+            insertAlert.executeBatch();
+        }
+
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    public void alertsOfChat(Blackhole blackhole) throws SQLException {
+        alertsOfChat.setLong(1, random.nextInt(chats));
+        consume(alertsOfChat, blackhole);
+    }
+
+    @Benchmark
+    public void runningChatsPage(Blackhole blackhole) throws SQLException {
+        runningChatsPage.setLong(1, random.nextInt(chats));
+        consume(runningChatsPage, blackhole);
+    }
+
+    @Benchmark
+    public void adminChatsPage(Blackhole blackhole) throws SQLException {
+        adminChatsPage.setLong(1, random.nextInt(chats));
+        consume(adminChatsPage, blackhole);
+    }
+
+    @Benchmark
+    public void chatsInCell(Blackhole blackhole) throws SQLException {
+        chatsInCell.setLong(1, cells[random.nextInt(chats)]);
+        consume(chatsInCell, blackhole);
+    }
+
+    private static void consume(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+            }
+        }
+    }
+}
@@ -2,12 +2,17 @@ package com.simpleplus.telegram.bots;
 
 import com.simpleplus.telegram.bots.components.*;
 import com.simpleplus.telegram.bots.services.SunsetSunriseService;
+import com.simpleplus.telegram.bots.services.impl.CachingSunsetSunriseService;
+import com.simpleplus.telegram.bots.services.impl.CircuitBreakingSunsetSunriseService;
+import com.simpleplus.telegram.bots.services.impl.SunsetSunriseLocalCalculator;
 import com.simpleplus.telegram.bots.services.impl.SunsetSunriseRemoteAPI;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.meta.generics.BotSession;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
+import java.time.Duration;
+
 public class Main {
 
     public static void main(String[] args) {
@@ -30,8 +35,10 @@ public class Main {
     public static void initDefaultBotContext() {
         BotContext context = new BotContext();
         BotContext.setDefaultContext(context);
+        PropertiesManager propertiesManager = new PropertiesManager();
+        context.addBean(PropertiesManager.class, propertiesManager);
         context.addBean(SunriseSunsetBot.class);
-        context.addBean(SunsetSunriseService.class, new SunsetSunriseRemoteAPI());
+        context.addBean(SunsetSunriseService.class, createSunsetSunriseService(propertiesManager));
         context.addBean(BotScheduler.class);
         context.addBean(Notifier.class);
         context.addBean(PersistenceManager.class);
@@ -39,8 +46,57 @@ public class Main {
         context.addBean(MessageHandler.class);
         context.addBean(CommandHandler.class);
         context.addBean(AdminCommandHandler.class);
-        context.addBean(PropertiesManager.class);
         context.addBean(UserAlertsManager.class);
+        context.addBean(UpdateDispatcher.class);
+        context.addBean(OutboundSender.class);
         context.initContext();
     }
+
+    /**
+     * Creates the {@link SunsetSunriseService} selected by the {@code sunset-sunrise-service} property: either
+     * {@code remote} (default), which calls the Node.js API, or {@code local}, which computes times in-process.
+     * <p>
+     * The service is wrapped in a {@link CircuitBreakingSunsetSunriseService} and, unless {@code sunset-sunrise-cache}
+     * is {@code false}, in a {@link CachingSunsetSunriseService}.
+     */
+    private static SunsetSunriseService createSunsetSunriseService(PropertiesManager propertiesManager) {
+        String service = propertiesManager.getPropertyOrDefault("sunset-sunrise-service", "remote");
+        SunsetSunriseService sunsetSunriseService;
+
+        switch (service) {
+            case "remote":
+                sunsetSunriseService = new SunsetSunriseRemoteAPI(
+                        propertiesManager.getPropertyOrDefault("sunset-sunrise-api-url", "http://127.0.0.1:8500"),
+                        Duration.ofMillis(Long.parseLong(propertiesManager.getPropertyOrDefault(
+                                "sunset-sunrise-connect-timeout-millis", "2000"))),
+                        Duration.ofMillis(Long.parseLong(propertiesManager.getPropertyOrDefault(
+                                "sunset-sunrise-request-timeout-millis", "5000"))),
+                        Integer.parseInt(propertiesManager.getPropertyOrDefault(
+                                "sunset-sunrise-max-concurrent-requests", "16")),
+                        Integer.parseInt(propertiesManager.getPropertyOrDefault(
+                                "sunset-sunrise-batch-size", "200")));
+                break;
+            case "local":
+                sunsetSunriseService = new SunsetSunriseLocalCalculator();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown sunset-sunrise-service '" + service + "'.");
+        }
+
+        sunsetSunriseService = new CircuitBreakingSunsetSunriseService(sunsetSunriseService,
+                Integer.parseInt(propertiesManager.getPropertyOrDefault("sunset-sunrise-breaker-failures", "5")),
+                Duration.ofSeconds(Long.parseLong(
+                        propertiesManager.getPropertyOrDefault("sunset-sunrise-breaker-open-seconds", "60"))));
+
+        if (!Boolean.parseBoolean(propertiesManager.getPropertyOrDefault("sunset-sunrise-cache", "true"))) {
+            return sunsetSunriseService;
+        }
+
+        return new CachingSunsetSunriseService(sunsetSunriseService,
+                Double.parseDouble(
+                        propertiesManager.getPropertyOrDefault("sunset-sunrise-cache-cell-degrees", "0.01")),
+                Long.parseLong(propertiesManager.getPropertyOrDefault("sunset-sunrise-cache-size", "100000")),
+                Duration.ofHours(Long.parseLong(
+                        propertiesManager.getPropertyOrDefault("sunset-sunrise-cache-ttl-hours", "48"))));
+    }
 }
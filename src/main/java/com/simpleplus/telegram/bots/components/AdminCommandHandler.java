@@ -1,6 +1,7 @@
 package com.simpleplus.telegram.bots.components;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.simpleplus.telegram.bots.components.sender.MessagePriority;
 import com.simpleplus.telegram.bots.datamodel.Step;
 import com.simpleplus.telegram.bots.datamodel.UserState;
 import org.apache.logging.log4j.LogManager;
@@ -8,9 +9,11 @@ import org.apache.logging.log4j.Logger;
 import org.telegram.telegrambots.meta.api.objects.Update;
 
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -92,26 +95,18 @@ public class AdminCommandHandler extends CommandHandler implements BotBean {
     }
 
     private void broadcast(String message, boolean onlyToAdmins) {
-        Map<Long, UserState> userStatesMap =
-                persistenceManager.getUserStatesMap()
-                        .entrySet()
-                        .stream()
-                        .filter(e -> e.getValue().getStep() != Step.EXPIRED) // Get all chats with step != expired
-                        .filter(e -> (e.getValue().isAdmin() && onlyToAdmins) || !onlyToAdmins) // If onlyToAdmins, get only admin chats
-                        .collect(Collectors.toMap(s -> s.getKey(), p -> p.getValue()));
-
-        LOG.info("Broadcasting message to {} users.", userStatesMap.size());
-
-        for (Map.Entry<Long, UserState> entry : userStatesMap.entrySet()) {
-            bot.reply(entry.getKey(), message);
-
-            // To avoid hitting Telegram Bot API limits, we force a delay between messages.
-            try {
-                Thread.sleep(35);
-            } catch (InterruptedException e) {
-                LOG.error("InterruptedException while waiting before sending next broadcast message.", e);
-            }
-        }
+        // Telegram Bot API limits are enforced by the OutboundSender, which sends broadcasts after any other message
+        MessagePriority priority = onlyToAdmins ? MessagePriority.INTERACTIVE : MessagePriority.BROADCAST;
+        AtomicInteger recipients = new AtomicInteger();
+
+        // Get all chats with step != expired; if onlyToAdmins, get only admin chats
+        persistenceManager.forEachUserState(EnumSet.complementOf(EnumSet.of(Step.EXPIRED)), onlyToAdmins,
+                (chatId, userState) -> {
+                    bot.reply(chatId, message, priority);
+                    recipients.incrementAndGet();
+                });
+
+        LOG.info("Broadcast message to {} users.", recipients.get());
     }
 
     private void broadcast(String message) {
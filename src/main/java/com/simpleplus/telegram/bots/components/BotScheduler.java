@@ -1,31 +1,202 @@
 package com.simpleplus.telegram.bots.components;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.simpleplus.telegram.bots.components.scheduler.BatchStatistics;
+import com.simpleplus.telegram.bots.components.scheduler.HashedWheelSchedulerEngine;
+import com.simpleplus.telegram.bots.components.scheduler.MessageBatch;
+import com.simpleplus.telegram.bots.components.scheduler.SchedulerEngine;
+import com.simpleplus.telegram.bots.components.scheduler.TimerSchedulerEngine;
 import com.simpleplus.telegram.bots.components.tasks.ScheduledMessage;
+import com.simpleplus.telegram.bots.datamodel.PendingAlert;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
+/**
+ * Schedules messages and recurring tasks. Timekeeping is delegated to a {@link SchedulerEngine}, which can be chosen
+ * with the {@code scheduler-engine} property:
+ * <ul>
+ * <li>{@code wheel} (default): a hashed timing wheel, see {@link HashedWheelSchedulerEngine};</li>
+ * <li>{@code timer}: a single {@link java.util.Timer}, see {@link TimerSchedulerEngine}.</li>
+ * </ul>
+ * Messages are not scheduled one by one: all the messages falling in the same window of {@code scheduler-batch-seconds}
+ * seconds are grouped in a {@link MessageBatch}, which is scheduled at the end of the window and whose messages are
+ * then sent in parallel by a pool of {@code scheduler-sender-threads} threads.
+ * <p>
+ * Scheduled messages are kept in the database as {@link PendingAlert}s until they are sent, while only the ones due
+ * within a sliding window of {@code scheduler-window-minutes} minutes (15) are held in memory: every half window the
+ * messages entering the window are read from the database and scheduled. Memory usage thus depends on how many
+ * messages are sent in a window, not on how many chats there are. After a restart, {@link #loadPendingAlerts()}
+ * schedules again the messages of the current window.
+ */
 public class BotScheduler implements BotBean {
     private static final Logger LOG = LogManager.getLogger(BotScheduler.class);
 
-    private Timer schedule = new Timer();
+    private SchedulerEngine schedule;
+    private ExecutorService senderPool;
+    private long batchMillis;
     private SunriseSunsetBot bot;
-    private ListMultimap<Long, Task> scheduledMessages = ArrayListMultimap.create();
+    private PropertiesManager propertiesManager;
+    private PersistenceManager persistenceManager;
+    private long windowMillis;
+    // Messages due before this time are held in memory, the following ones are only in the database
+    private long windowEnd;
+    // The tasks in memory of each chat, guarded by the map itself. Chats without tasks are removed
+    private final Long2ObjectMap<List<Task>> scheduledMessages = new Long2ObjectOpenHashMap<>();
+    private final Map<Long, MessageBatch<ScheduledMessage>> batches = new ConcurrentHashMap<>();
+    private final BatchStatistics batchStatistics = new BatchStatistics();
 
     @Override
     public void init() {
         this.bot = (SunriseSunsetBot) BotContext.getDefaultContext().getBean(SunriseSunsetBot.class);
+        this.propertiesManager = (PropertiesManager) BotContext.getDefaultContext().getBean(PropertiesManager.class);
+        this.persistenceManager =
+                (PersistenceManager) BotContext.getDefaultContext().getBean(PersistenceManager.class);
+        this.schedule = createSchedulerEngine();
+        this.windowMillis =
+                Long.parseLong(propertiesManager.getPropertyOrDefault("scheduler-window-minutes", "15")) * 60 * 1000;
+        this.batchMillis =
+                Long.parseLong(propertiesManager.getPropertyOrDefault("scheduler-batch-seconds", "60")) * 1000;
+        this.senderPool = Executors.newFixedThreadPool(
+                Integer.parseInt(propertiesManager.getPropertyOrDefault("scheduler-sender-threads", "8")),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("scheduler-sender-%d")
+                        .setDaemon(true)
+                        .build());
+
+        long now = System.currentTimeMillis();
+        this.windowEnd = now + windowMillis;
+        schedule.scheduleAtFixedRate(this::slideWindow, new Date(now + windowMillis / 2), windowMillis / 2);
+    }
+
+    private SchedulerEngine createSchedulerEngine() {
+        String engine = propertiesManager.getPropertyOrDefault("scheduler-engine", "wheel");
+
+        switch (engine) {
+            case "timer":
+                LOG.info("Using Timer scheduler engine.");
+                return new TimerSchedulerEngine();
+
+            case "wheel":
+                long tickSeconds =
+                        Long.parseLong(propertiesManager.getPropertyOrDefault("scheduler-tick-seconds", "60"));
+                int wheelSize =
+                        Integer.parseInt(propertiesManager.getPropertyOrDefault("scheduler-wheel-size", "1440"));
+                int dispatchThreads =
+                        Integer.parseInt(propertiesManager.getPropertyOrDefault("scheduler-dispatch-threads", "4"));
+                LOG.info("Using timing wheel scheduler engine.");
+                return new HashedWheelSchedulerEngine(tickSeconds * 1000, wheelSize, dispatchThreads);
+
+            default:
+                throw new IllegalArgumentException("Unknown scheduler engine '" + engine + "'.");
+        }
+    }
+
+    public void shutDown() {
+        schedule.shutDown();
+        senderPool.shutdown();
     }
 
+    /**
+     * Schedules a message which does not belong to any {@link com.simpleplus.telegram.bots.datamodel.UserAlert}.
+     *
+     * @see #scheduleMessage(long, long, Date, String)
+     */
     public ScheduleResult scheduleMessage(long chatId, Date time, String message) {
-        if (alreadyScheduled(chatId, time)) {
+        return scheduleMessage(chatId, 0, time, message);
+    }
+
+    /**
+     * Schedules the message of a {@link com.simpleplus.telegram.bots.datamodel.UserAlert}, unless the same alert
+     * already has a message scheduled at the same time.
+     * <p>
+     * Messages beyond the window held in memory are only added to the {@link PendingAlert}s, without looking them up:
+     * repeated ones are dropped when they are persisted, so {@link ScheduleResult#SCHEDULED} is returned for them too.
+     *
+     * @param chatId  the chat ID.
+     * @param alertId the id of the alert, which can be used to {@link #cancelScheduledMessages(long, long) cancel}
+     *                its messages only.
+     * @param time    when the message is to be sent.
+     * @param message the message.
+     */
+    public ScheduleResult scheduleMessage(long chatId, long alertId, Date time, String message) {
+        synchronized (this) {
+            // The window is not slid while deciding, otherwise the message could be missed by both
+            if (time.getTime() >= windowEnd) {
+                persistenceManager.addPendingAlert(
+                        new PendingAlert(chatId, alertId, time.getTime(), message, System.currentTimeMillis()));
+                LOG.info("ChatId {}: Message scheduled at {} (not in memory yet)", chatId, time.toString());
+                return ScheduleResult.SCHEDULED;
+            }
+        }
+
+        ScheduleResult result = addMessage(chatId, alertId, time, message);
+        if (result == ScheduleResult.SCHEDULED) {
+            persistenceManager.addPendingAlert(
+                    new PendingAlert(chatId, alertId, time.getTime(), message, System.currentTimeMillis()));
+        }
+        return result;
+    }
+
+    /**
+     * Schedules again the messages of the current window which were pending when the bot was stopped, unless they
+     * are out of date. The following ones are scheduled as the window slides.
+     * <p>
+     * Pending messages are out of date when none of them has been scheduled since the last midnight (UTC): the daily
+     * installation of the notifiers has been missed, or has never run. In this case they are deleted.
+     *
+     * @return {@code false} if the pending messages were out of date and the notifiers must be installed again.
+     */
+    public synchronized boolean loadPendingAlerts() {
+        long now = System.currentTimeMillis();
+        Long lastScheduledAt = persistenceManager.getLastPendingAlertScheduledAt();
+        long lastMidnight = LocalDate.now(ZoneOffset.UTC).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        if (lastScheduledAt == null || lastScheduledAt < lastMidnight) {
+            int deleted = persistenceManager.deletePendingAlertsUntil(Long.MAX_VALUE);
+            LOG.info("Deleted {} out of date pending alerts.", deleted);
+            return false;
+        }
+
+        // Messages due while the bot was stopped are not sent anymore
+        persistenceManager.deletePendingAlertsUntil(now);
+        loadPendingAlerts(now, windowEnd);
+        return true;
+    }
+
+    private synchronized void slideWindow() {
+        try {
+            long newWindowEnd = System.currentTimeMillis() + windowMillis;
+            loadPendingAlerts(windowEnd, newWindowEnd);
+            windowEnd = newWindowEnd;
+        } catch (RuntimeException e) {
+            LOG.error("Exception while sliding the window of scheduled messages, will retry.", e);
+        }
+    }
+
+    private void loadPendingAlerts(long from, long to) {
+        List<PendingAlert> pendingAlerts = persistenceManager.getPendingAlerts(from, to);
+        for (PendingAlert pendingAlert : pendingAlerts) {
+            addMessage(pendingAlert.getChatId(), pendingAlert.getAlertId(), new Date(pendingAlert.getFireTime()),
+                    pendingAlert.getMessage());
+        }
+        LOG.info("Loaded {} pending alerts due until {}.", pendingAlerts.size(), new Date(to));
+    }
+
+    private ScheduleResult addMessage(long chatId, long alertId, Date time, String message) {
+        if (alreadyScheduled(chatId, alertId, time)) {
             LOG.info("ChatId {}: A message is already scheduled at {}", chatId, time.toString());
             return ScheduleResult.NOT_TO_SCHEDULE;
         }
@@ -33,10 +204,14 @@ public class BotScheduler implements BotBean {
         try {
             // Schedule message only if time >= now
             if (time.after(Date.from(Instant.now().atZone(ZoneId.systemDefault()).toInstant()))) {
-                TimerTask task = new ScheduledMessage(chatId, message);
-                schedule.schedule(task, time);
-                LOG.info("ChatId {}: Message scheduled at {}", chatId, time.toString());
-                scheduledMessages.put(chatId, new Task(time, task));
+                ScheduledMessage scheduledMessage = new ScheduledMessage(chatId, message);
+                MessageBatch<ScheduledMessage> batch = addToBatch(scheduledMessage, time);
+                LOG.info("ChatId {}: Message scheduled at {} (batch at {})", chatId, time.toString(),
+                        batch.getTime().toString());
+                synchronized (scheduledMessages) {
+                    scheduledMessages.computeIfAbsent(chatId, ignored -> new ArrayList<>())
+                            .add(new Task(alertId, time, batch, scheduledMessage));
+                }
                 return ScheduleResult.SCHEDULED;
             } else {
                 LOG.info("ChatId {}: Message NOT scheduled at {} (date is before now)", chatId, time.toString());
@@ -48,16 +223,71 @@ public class BotScheduler implements BotBean {
         }
     }
 
-    //TODO: unit test!
-    private boolean alreadyScheduled(long chatId, Date time) {
-        List<Task> tasks = scheduledMessages.get(chatId);
-        return !tasks.stream()
-                .filter(s -> s.datetimeScheduled.equals(time))
-                .collect(Collectors.toList())
-                .isEmpty();
+    private MessageBatch<ScheduledMessage> addToBatch(ScheduledMessage message, Date time) {
+        // A batch is identified by the end of the window its messages fall in, so that no message is sent in advance
+        long batchTime = Math.floorDiv(time.getTime() + batchMillis - 1, batchMillis) * batchMillis;
+
+        while (true) {
+            MessageBatch<ScheduledMessage> batch = batches.computeIfAbsent(batchTime, this::createBatch);
+            if (batch.add(message)) {
+                return batch;
+            }
+
+            // The batch has just been closed: replace it with a new one
+            batches.remove(batchTime, batch);
+        }
+    }
+
+    private MessageBatch<ScheduledMessage> createBatch(long batchTime) {
+        MessageBatch<ScheduledMessage> batch = new MessageBatch<>(new Date(batchTime));
+        batch.setTask(schedule.schedule(() -> dispatchBatch(batch), batch.getTime()));
+        return batch;
+    }
+
+    private void dispatchBatch(MessageBatch<ScheduledMessage> batch) {
+        batches.remove(batch.getTime().getTime(), batch);
+        List<ScheduledMessage> messages = batch.close();
+        long lagMillis = System.currentTimeMillis() - batch.getTime().getTime();
+        batchStatistics.record(messages.size(), lagMillis);
+        LOG.info("Dispatching {} messages scheduled at {} (lag {} ms).", messages.size(), batch.getTime().toString(),
+                lagMillis);
+
+        for (ScheduledMessage message : messages) {
+            synchronized (scheduledMessages) {
+                List<Task> tasks = scheduledMessages.get((long) message.getChatID());
+                if (tasks != null && tasks.removeIf(task -> task.message == message) && tasks.isEmpty()) {
+                    scheduledMessages.remove((long) message.getChatID());
+                }
+            }
+            senderPool.execute(message);
+        }
+
+        try {
+            persistenceManager.deletePendingAlertsUntil(batch.getTime().getTime());
+        } catch (RuntimeException e) {
+            LOG.error("Exception while deleting the pending alerts of a dispatched batch.", e);
+        }
+    }
+
+    private void removeFromBatch(Task task) {
+        if (task.batch.remove(task.message)) {
+            // The batch has been left empty: there's no point in keeping it scheduled
+            batches.remove(task.batch.getTime().getTime(), task.batch);
+            task.batch.getTask().cancel();
+        }
     }
 
-    public ScheduleResult schedule(TimerTask task, Date firstTime, long period) {
+    private boolean alreadyScheduled(long chatId, long alertId, Date time) {
+        synchronized (scheduledMessages) {
+            List<Task> tasks = scheduledMessages.getOrDefault(chatId, Collections.emptyList());
+            return !tasks.stream()
+                    .filter(s -> s.alertId == alertId && s.datetimeScheduled.equals(time))
+                    .collect(Collectors.toList())
+                    .isEmpty();
+        }
+    }
+
+    public ScheduleResult schedule(Runnable task, Date firstTime, long period) {
         // If firstTime is already passed, add period until firstTime gets in the future
         while (firstTime.before(Date.from(Instant.now().atZone(ZoneId.systemDefault()).toInstant()))) {
             firstTime = DateUtils.addMilliseconds(firstTime, (int) period);
@@ -75,11 +305,49 @@ public class BotScheduler implements BotBean {
     }
 
     public void cancelAllScheduledMessages(long chatId) {
-        List<Task> tasksToStop = scheduledMessages.removeAll(chatId);
-        tasksToStop.forEach(s -> s.task.cancel());
+        List<Task> tasksToStop;
+        synchronized (scheduledMessages) {
+            tasksToStop = scheduledMessages.getOrDefault(chatId, Collections.emptyList());
+            scheduledMessages.remove(chatId);
+        }
+        tasksToStop.forEach(this::removeFromBatch);
+        persistenceManager.deletePendingAlerts(chatId);
         LOG.debug("Deleted these scheduled messages for chatId {}: {}", chatId, tasksToStop);
         LOG.info("ChatId {}: Deleted {} scheduled messages.", chatId, tasksToStop.size());
-        schedule.purge();
+    }
+
+    /**
+     * Cancels the messages of a single {@link com.simpleplus.telegram.bots.datamodel.UserAlert}, leaving the other
+     * messages of the chat scheduled.
+     */
+    public void cancelScheduledMessages(long chatId, long alertId) {
+        List<Task> tasksToStop = new ArrayList<>();
+        synchronized (scheduledMessages) {
+            List<Task> tasks = scheduledMessages.getOrDefault(chatId, Collections.emptyList());
+            Iterator<Task> iterator = tasks.iterator();
+            while (iterator.hasNext()) {
+                Task task = iterator.next();
+                if (task.alertId == alertId) {
+                    tasksToStop.add(task);
+                    iterator.remove();
+                }
+            }
+            if (tasks.isEmpty()) {
+                scheduledMessages.remove(chatId);
+            }
+        }
+        tasksToStop.forEach(this::removeFromBatch);
+        persistenceManager.deletePendingAlerts(chatId, alertId);
+        LOG.info("ChatId {}: Deleted {} scheduled messages of alert {}.", chatId, tasksToStop.size(), alertId);
+    }
+
+    public BatchStatistics getBatchStatistics() {
+        return batchStatistics;
+    }
+
+    @VisibleForTesting
+    int getPendingBatchesCount() {
+        return batches.size();
     }
 
     public enum ScheduleResult {
@@ -96,19 +364,27 @@ public class BotScheduler implements BotBean {
     }
 
     private class Task {
+        long alertId;
         Date datetimeScheduled;
-        TimerTask task;
+        MessageBatch<ScheduledMessage> batch;
+        ScheduledMessage message;
 
-        public Task(Date datetimeScheduled, TimerTask task) {
+        public Task(long alertId,
+                    Date datetimeScheduled,
+                    MessageBatch<ScheduledMessage> batch,
+                    ScheduledMessage message) {
+            this.alertId = alertId;
             this.datetimeScheduled = datetimeScheduled;
-            this.task = task;
+            this.batch = batch;
+            this.message = message;
         }
 
         @Override
         public String toString() {
             return "Task{" +
-                    "datetimeScheduled=" + datetimeScheduled +
-                    ", task=" + task +
+                    "alertId=" + alertId +
+                    ", datetimeScheduled=" + datetimeScheduled +
+                    ", message=" + message +
                     '}';
         }
 
@@ -121,7 +397,7 @@ public class BotScheduler implements BotBean {
 
             if (datetimeScheduled != null ? !datetimeScheduled.equals(task1.datetimeScheduled) : task1.datetimeScheduled != null)
                 return false;
-            return task != null ? task.equals(task1.task) : task1.task == null;
+            return message != null ? message.equals(task1.message) : task1.message == null;
         }
     }
 
@@ -3,7 +3,6 @@ package com.simpleplus.telegram.bots.components;
 import com.google.common.annotations.VisibleForTesting;
 import com.simpleplus.telegram.bots.datamodel.Step;
 import com.simpleplus.telegram.bots.datamodel.UserState;
-import com.simpleplus.telegram.bots.exceptions.ServiceException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.telegram.telegrambots.meta.api.objects.Update;
@@ -146,12 +145,12 @@ public class CommandHandler implements BotBean {
         UserState userState = persistenceManager.getUserState(chatId);
 
         if (userState.getStep() == Step.STOPPED) {
-            try {
-                notifier.tryToInstallNotifiers(chatId, 5);
-                persistenceManager.setNextStep(chatId);
+            persistenceManager.setNextStep(chatId);
+            if (notifier.tryToInstallNotifiers(chatId, 5)) {
                 bot.reply(chatId, "The bot has been resumed. You will receive notifications again.");
-            } catch (ServiceException e) {
-                bot.replyAndLogError(chatId, "ServiceException while resuming chat.", e);
+            } else {
+                bot.reply(chatId, "The bot has been resumed, however we are encountering some technical " +
+                        "difficulties: you will receive notifications again as soon as they are solved.");
             }
         } else {
             bot.reply(chatId, "The bot is already running.");
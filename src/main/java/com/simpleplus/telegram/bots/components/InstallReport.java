@@ -0,0 +1,46 @@
+package com.simpleplus.telegram.bots.components;
+
+import java.time.Duration;
+
+/**
+ * Summary of a run of {@link Notifier#installAllNotifiers()}.
+ */
+public class InstallReport {
+    private final int chatsProcessed;
+    private final int failures;
+    private final int retries;
+    private final Duration wallTime;
+
+    public InstallReport(int chatsProcessed, int failures, int retries, Duration wallTime) {
+        this.chatsProcessed = chatsProcessed;
+        this.failures = failures;
+        this.retries = retries;
+        this.wallTime = wallTime;
+    }
+
+    public int getChatsProcessed() {
+        return chatsProcessed;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public Duration getWallTime() {
+        return wallTime;
+    }
+
+    @Override
+    public String toString() {
+        return "InstallReport{" +
+                "chatsProcessed=" + chatsProcessed +
+                ", failures=" + failures +
+                ", retries=" + retries +
+                ", wallTime=" + wallTime +
+                '}';
+    }
+}
@@ -3,7 +3,6 @@ package com.simpleplus.telegram.bots.components;
 import com.simpleplus.telegram.bots.datamodel.Coordinates;
 import com.simpleplus.telegram.bots.datamodel.Step;
 import com.simpleplus.telegram.bots.datamodel.UserState;
-import com.simpleplus.telegram.bots.exceptions.ServiceException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -89,14 +88,15 @@ public class MessageHandler implements BotBean {
 
         if (location != null) {
             setLocation(chatId, location);
-            try {
-                scheduler.cancelAllScheduledMessages(chatId);
-                notifier.tryToInstallNotifiers(chatId, 5);
-                persistenceManager.setStep(chatId, RUNNING);
+            notifier.invalidateCachedTimes(chatId);
+            scheduler.cancelAllScheduledMessages(chatId);
+            persistenceManager.setStep(chatId, RUNNING);
+            if (notifier.tryToInstallNotifiers(chatId, 5)) {
                 bot.reply(chatId, "Your location has been saved. " +
                         "You will be notified at sunset and sunrise.");
-            } catch (ServiceException e) {
-                bot.replyAndLogError(chatId, "ServiceException during onUpdateReceived.", e);
+            } else {
+                bot.reply(chatId, "Your location has been saved, however we are encountering some technical " +
+                        "difficulties: you will be notified at sunset and sunrise as soon as they are solved.");
             }
         } else {
             bot.reply(chatId, "You aren't sending me a valid location. Please try again!");
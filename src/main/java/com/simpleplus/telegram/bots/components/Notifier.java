@@ -1,5 +1,10 @@
 package com.simpleplus.telegram.bots.components;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.simpleplus.telegram.bots.components.retry.RetryScheduler;
 import com.simpleplus.telegram.bots.components.tasks.ScheduledNotifiersInstaller;
 import com.simpleplus.telegram.bots.datamodel.*;
 import com.simpleplus.telegram.bots.exceptions.ServiceException;
@@ -9,12 +14,29 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nullable;
+import java.time.Duration;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.simpleplus.telegram.bots.components.BotScheduler.ScheduleResult.NOT_SCHEDULED;
 import static com.simpleplus.telegram.bots.components.BotScheduler.ScheduleResult.NOT_TO_SCHEDULE;
@@ -22,6 +44,23 @@ import static com.simpleplus.telegram.bots.components.UserAlertsManager.DRAFT_DE
 import static com.simpleplus.telegram.bots.datamodel.Step.RUNNING;
 import static com.simpleplus.telegram.bots.datamodel.Step.TO_ENTER_SUPPORT_MESSAGE;
 
+/**
+ * Schedules the messages of the chats' alerts.
+ * <p>
+ * The times of the next {@code notifier-horizon-days} days (7) of each chat are computed once and saved as
+ * {@link SavedTimes}. When the notifiers are installed again, only the days missing from the saved ones are computed:
+ * every night this is just the last day of the horizon. If the service is not available, the saved times are used as
+ * long as they cover today and tomorrow. Saved times are computed again when the chat moves to another
+ * {@link Coordinates#toCell() cell}.
+ * <p>
+ * Only the calls to the service are incremental: scheduling is not. Every night the notifiers of all the running chats
+ * of a band are installed again, loading their alerts and saved times and scheduling every alert, while messages
+ * already pending are dropped by the {@link BotScheduler}.
+ * <p>
+ * The times of today and tomorrow of each chat are also cached in memory, in a cache of at most
+ * {@code notifier-times-cache-size} chats (100000), so that installing the notifiers of a single chat again, for
+ * example when it is resumed or one of its alerts is edited, neither calls the service nor reads its saved times.
+ */
 public class Notifier implements BotBean {
     private static final Logger LOG = LogManager.getLogger(Notifier.class);
 
@@ -30,6 +69,12 @@ public class Notifier implements BotBean {
     private BotScheduler scheduler;
     private PersistenceManager persistenceManager;
     private UserAlertsManager userAlertsManager;
+    private ExecutorService installerPool;
+    private Semaphore installPermits;
+    private RetryScheduler retryScheduler;
+    private int installAttempts;
+    private int horizonDays;
+    private Cache<CachedTimesKey, CachedTimes> timesCache;
 
     public void init() {
         this.bot = (SunriseSunsetBot) BotContext.getDefaultContext().getBean(SunriseSunsetBot.class);
@@ -40,60 +85,323 @@ public class Notifier implements BotBean {
                 (PersistenceManager) BotContext.getDefaultContext().getBean(PersistenceManager.class);
         this.userAlertsManager =
                 (UserAlertsManager) BotContext.getDefaultContext().getBean(UserAlertsManager.class);
+
+        PropertiesManager propertiesManager =
+                (PropertiesManager) BotContext.getDefaultContext().getBean(PropertiesManager.class);
+        this.installAttempts =
+                Integer.parseInt(propertiesManager.getPropertyOrDefault("notifier-install-attempts", "5"));
+        // Today and tomorrow are always needed
+        this.horizonDays =
+                Math.max(2, Integer.parseInt(propertiesManager.getPropertyOrDefault("notifier-horizon-days", "7")));
+        // Keyed by date as well, so that the times of a chat are computed again every day
+        this.timesCache = CacheBuilder.newBuilder()
+                .maximumSize(
+                        Long.parseLong(propertiesManager.getPropertyOrDefault("notifier-times-cache-size", "100000")))
+                .expireAfterWrite(Duration.ofDays(1))
+                .recordStats()
+                .build();
+        int installerThreads =
+                Integer.parseInt(propertiesManager.getPropertyOrDefault("notifier-installer-threads", "8"));
+        this.installPermits = new Semaphore(installerThreads);
+        this.installerPool = Executors.newFixedThreadPool(installerThreads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("notifier-installer-%d")
+                        .setDaemon(true)
+                        .build());
+        this.retryScheduler = new RetryScheduler(installerPool,
+                Long.parseLong(propertiesManager.getPropertyOrDefault("notifier-retry-delay-seconds", "60")) * 1000,
+                Long.parseLong(
+                        propertiesManager.getPropertyOrDefault("notifier-retry-max-delay-seconds", "900")) * 1000);
     }
 
-    public void installAllNotifiers() {
-        for (Map.Entry<Long, UserState> userState : persistenceManager.getUserStatesMap().entrySet()) {
-            if (userState.getValue().getStep().in(RUNNING, TO_ENTER_SUPPORT_MESSAGE)) {
-                Long chatId = userState.getKey();
-                try {
-                    tryToInstallNotifiers(chatId, 5);
-                } catch (ServiceException e) {
-                    bot.replyAndLogError(chatId, "ServiceException during installAllNotifiers", e);
+    public void shutDown() {
+        installerPool.shutdownNow();
+    }
+
+    /**
+     * Installs the notifiers of all the running chats and deletes their draft alerts and their saved times of past
+     * days.
+     * <p>
+     * Chats are processed in parallel by a pool of {@code notifier-installer-threads} threads. A chat whose notifiers
+     * cannot be installed is tried up to {@code notifier-install-attempts} times, with the backoff of the
+     * {@link RetryScheduler}. No thread is held while waiting, so a failing chat never stalls the others.
+     * <p>
+     * Chats are read page by page only as fast as they are installed: at most one chat per thread is waiting for its
+     * first attempt, so memory usage does not depend on how many chats there are.
+     *
+     * @return a future completed with an {@link InstallReport} when all the chats have been processed.
+     */
+    public CompletableFuture<InstallReport> installAllNotifiers() {
+        // Draft alerts are never installed, so they can all be deleted at once beforehand
+        deleteDraftAlerts();
+        deletePastSavedTimes();
+        return installNotifiersOfChats(null);
+    }
+
+    /**
+     * Installs the notifiers of the running chats in a {@link Coordinates#toLongitudeBand() longitude band}, as
+     * {@link #installAllNotifiers()} does for all the chats. Draft alerts and saved times of past days are deleted only
+     * with band 0, whose midnight is midnight UTC.
+     *
+     * @return a future completed with an {@link InstallReport} when all the chats of the band have been processed.
+     */
+    public CompletableFuture<InstallReport> installNotifiersOfBand(int longitudeBand) {
+        if (longitudeBand == 0) {
+            deleteDraftAlerts();
+            deletePastSavedTimes();
+        }
+        return installNotifiersOfChats(longitudeBand);
+    }
+
+    private CompletableFuture<InstallReport> installNotifiersOfChats(@Nullable Integer longitudeBand) {
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger retries = new AtomicInteger();
+        // One for each install not completed yet, plus one until all the chats have been read
+        AtomicInteger running = new AtomicInteger(1);
+        CompletableFuture<InstallReport> result = new CompletableFuture<>();
+
+        Runnable completeIfDone = () -> {
+            if (running.decrementAndGet() == 0) {
+                InstallReport report = new InstallReport(processed.get(), failures.get(), retries.get(),
+                        Duration.ofNanos(System.nanoTime() - start));
+                if (longitudeBand == null) {
+                    LOG.info("All notifiers installed: {}", report);
+                } else {
+                    LOG.info("Notifiers of longitude band {} installed: {}", longitudeBand, report);
                 }
+                logTimesCacheStats();
+                recordBandsInstalled(longitudeBand, startedAt);
+                result.complete(report);
+            }
+        };
 
-                for (UserAlert alert : persistenceManager.getUserAlerts(chatId)) {
-                    if (alert.getDelay() == DRAFT_DELAY) {
-                        persistenceManager.deleteUserAlert(chatId, alert.getId());
-                        LOG.info("Deleted draft alert #{}", alert.getId());
-                    }
+        Consumer<ChatSchedule> install = chatSchedule -> {
+            long chatId = chatSchedule.getChatId();
+            // Wait for a first attempt to end before reading more chats, so that they are not all held in memory
+            installPermits.acquireUninterruptibly();
+            // Dropped by the first attempt: retries load the chat again
+            AtomicReference<ChatSchedule> firstAttemptSchedule = new AtomicReference<>(chatSchedule);
+            Runnable releasePermit = () -> {
+                if (firstAttemptSchedule.getAndSet(null) != null) {
+                    installPermits.release();
+                }
+            };
+
+            RetryScheduler.RetryableTask task = attempt -> {
+                if (attempt > 0) {
+                    // The chat may have changed in the meantime
+                    retries.incrementAndGet();
+                    installNotifiers(chatId);
+                    return;
+                }
+
+                try {
+                    installNotifiers(firstAttemptSchedule.get());
+                } finally {
+                    releasePermit.run();
                 }
+            };
+
+            processed.incrementAndGet();
+            running.incrementAndGet();
+            retryScheduler.submit("ChatId " + chatId + ": install notifiers", task, installAttempts)
+                    .whenComplete((ignored, e) -> {
+                        // In case the first attempt has not even run
+                        releasePermit.run();
+                        if (e != null) {
+                            failures.incrementAndGet();
+                            bot.replyAndLogError(chatId, "Exception during installAllNotifiers", e);
+                        }
+                        completeIfDone.run();
+                    });
+        };
+
+        persistenceManager.forEachChatSchedule(EnumSet.of(RUNNING, TO_ENTER_SUPPORT_MESSAGE), longitudeBand, install);
+        completeIfDone.run();
+
+        return result;
+    }
+
+    private void recordBandsInstalled(@Nullable Integer longitudeBand, long startedAt) {
+        try {
+            persistenceManager.setBandsInstalledAt(longitudeBand != null ?
+                    Collections.singleton(longitudeBand) :
+                    IntStream.range(0, Coordinates.LONGITUDE_BANDS).boxed().collect(Collectors.toList()), startedAt);
+        } catch (RuntimeException e) {
+            LOG.error("Exception while recording the installation of the notifiers.", e);
+        }
+    }
+
+    /**
+     * Installs the notifiers of the {@link Coordinates#toLongitudeBand() longitude bands} whose last daily run has
+     * been missed, for example because the bot was stopped at that time. The daily runs scheduled by
+     * {@link #scheduleDailyAllNotifiersInstaller()} only start from the next one.
+     *
+     * @return a future completed when the notifiers of all the missed bands have been installed.
+     */
+    public CompletableFuture<Void> installMissedBands() {
+        Map<Integer, Long> bandsInstalledAt = persistenceManager.getBandsInstalledAt();
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        List<CompletableFuture<InstallReport>> installs = new ArrayList<>();
+
+        for (int band = 0; band < Coordinates.LONGITUDE_BANDS; band++) {
+            ZonedDateTime lastRun = getDailyInstallTime(band).atDate(now.toLocalDate()).atZone(ZoneOffset.UTC);
+            if (lastRun.isAfter(now)) {
+                lastRun = lastRun.minusDays(1);
+            }
+
+            Long installedAt = bandsInstalledAt.get(band);
+            if (installedAt == null || installedAt < lastRun.toInstant().toEpochMilli()) {
+                LOG.info("The notifiers of longitude band {} have not been installed since {}: installing them.",
+                        band, lastRun);
+                installs.add(installNotifiersOfBand(band));
             }
         }
+
+        return CompletableFuture.allOf(installs.toArray(new CompletableFuture[0]));
+    }
+
+    private void deleteDraftAlerts() {
+        try {
+            int deleted = persistenceManager.deleteUserAlertsWithDelay(DRAFT_DELAY);
+            LOG.info("Deleted {} draft alerts.", deleted);
+        } catch (RuntimeException e) {
+            LOG.error("Exception while deleting draft alerts.", e);
+        }
+    }
+
+    private void deletePastSavedTimes() {
+        try {
+            int deleted = persistenceManager.deleteSavedTimesBefore(LocalDate.now());
+            LOG.info("Deleted {} saved times of past days.", deleted);
+        } catch (RuntimeException e) {
+            LOG.error("Exception while deleting saved times of past days.", e);
+        }
     }
 
     /**
-     * Tries {@code numberOfTimes} times to install a notifier, otherwise throws ServiceException.
+     * Tries to install the notifiers of a chat without blocking the caller: the first attempt is made immediately
+     * and, if it fails, up to {@code numberOfTimes - 1} further attempts are queued on the {@link RetryScheduler}.
+     * Queued attempts are dropped as soon as the chat is no longer running.
      *
      * @param chatId        the chat ID.
-     * @param numberOfTimes number of retries.
+     * @param numberOfTimes maximum number of attempts.
+     * @return {@code true} if the notifiers have been installed by the first attempt, {@code false} if they are
+     * going to be installed later.
      */
-    public void tryToInstallNotifiers(Long chatId, int numberOfTimes) throws ServiceException {
-        for (int i = 0; i < numberOfTimes; i++) {
-            try {
+    public boolean tryToInstallNotifiers(long chatId, int numberOfTimes) {
+        try {
+            installNotifiers(chatId);
+            return true;
+        } catch (ServiceException e) {
+            LOG.warn("ChatId {}: ServiceException during tryToInstallNotifiers, going to retry later.", chatId, e);
+        }
+
+        RetryScheduler.RetryableTask task = attempt -> {
+            UserState userState = persistenceManager.getUserState(chatId);
+            if (userState != null && userState.getStep().in(RUNNING, TO_ENTER_SUPPORT_MESSAGE)) {
                 installNotifiers(chatId);
-                return;
-            } catch (ServiceException e) {
-                LOG.warn("ServiceException during tryToInstallNotifiers (attempt " + Integer.toString(i) +
-                        ")... Sleeping 60 seconds.", e);
-                try {
-                    Thread.sleep(60000);
-                } catch (InterruptedException e1) {
-                    LOG.error("InterruptedException while sleeping in tryToInstallNotifiers.", e1);
-                }
             }
+        };
+
+        retryScheduler.retry("ChatId " + chatId + ": install notifiers", task, numberOfTimes)
+                .whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        bot.replyAndLogError(chatId, "Cannot install notifiers after " + numberOfTimes +
+                                " attempts.", e);
+                    }
+                });
+
+        return false;
+    }
+
+    /**
+     * Tries to install the notifier of a single alert, as {@link #tryToInstallNotifiers(long, int)} does for all the
+     * alerts of a chat. The other alerts of the chat are left untouched, and the saved times of the chat are used: the
+     * service is called only for the days of the horizon which have not been saved yet.
+     *
+     * @param userAlert     the alert, already persisted.
+     * @param numberOfTimes maximum number of attempts.
+     * @return {@code true} if the notifier has been installed by the first attempt, {@code false} if it is going to
+     * be installed later.
+     */
+    public boolean tryToInstallNotifier(UserAlert userAlert, int numberOfTimes) {
+        long chatId = userAlert.getChatId();
+        try {
+            installNotifier(userAlert);
+            return true;
+        } catch (ServiceException e) {
+            LOG.warn("ChatId {}: ServiceException during tryToInstallNotifier, going to retry later.", chatId, e);
         }
-        throw new ServiceException("Cannot install notifier: service not available.");
+
+        RetryScheduler.RetryableTask task = attempt -> {
+            UserState userState = persistenceManager.getUserState(chatId);
+            if (userState != null && userState.getStep().in(RUNNING, TO_ENTER_SUPPORT_MESSAGE)) {
+                // The alert may have been edited or removed in the meantime
+                for (UserAlert alert : persistenceManager.getUserAlerts(chatId)) {
+                    if (alert.getId() == userAlert.getId()) {
+                        installNotifier(alert);
+                    }
+                }
+            }
+        };
+
+        String description = "ChatId " + chatId + ": install notifier of alert " + userAlert.getId();
+        retryScheduler.retry(description, task, numberOfTimes)
+                .whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        bot.replyAndLogError(chatId, "Cannot install notifier after " + numberOfTimes +
+                                " attempts.", e);
+                    }
+                });
+
+        return false;
+    }
+
+    private void installNotifier(UserAlert userAlert) throws ServiceException {
+        long chatId = userAlert.getChatId();
+        installNotifiers(chatId, persistenceManager.getUserState(chatId), Collections.singleton(userAlert));
     }
 
     private void installNotifiers(long chatId) throws ServiceException {
-        SunsetSunriseTimes times = calculateSunriseAndSunset(chatId);
-        SunsetSunriseTimes timesTomorrow = calculateSunriseAndSunset(chatId, LocalDate.now().plusDays(1));
+        installNotifiers(chatId, persistenceManager.getUserState(chatId), userAlertsManager.getUserAlerts(chatId));
+    }
+
+    /**
+     * Installs the notifiers of a single chat, taking the times of today and tomorrow from the cache if possible.
+     */
+    private void installNotifiers(long chatId, UserState userState, Set<UserAlert> userAlerts)
+            throws ServiceException {
+        LocalDate today = LocalDate.now();
+        CachedTimes cachedTimes = timesCache.getIfPresent(new CachedTimesKey(chatId, today));
+        // The cell is checked as well, in case the chat has moved while its times were being computed
+        if (cachedTimes == null || cachedTimes.cell != userState.getCoordinates().toCell()) {
+            cachedTimes = getTimes(
+                    new ChatSchedule(chatId, userState, userAlerts, persistenceManager.getSavedTimes(chatId)), today);
+        }
+
+        scheduleMessages(chatId, userAlerts, cachedTimes);
+    }
+
+    private void installNotifiers(ChatSchedule chatSchedule) throws ServiceException {
+        scheduleMessages(chatSchedule.getChatId(), chatSchedule.getUserAlerts(),
+                getTimes(chatSchedule, LocalDate.now()));
+    }
 
-        for (UserAlert alert : userAlertsManager.getUserAlerts(chatId)) {
+    private void scheduleMessages(long chatId, Set<UserAlert> userAlerts, CachedTimes cachedTimes) {
+        // A chat without alerts gets the default ones
+        if (userAlerts.isEmpty()) {
+            userAlerts = userAlertsManager.getUserAlerts(chatId);
+        }
+
+        for (UserAlert alert : userAlerts) {
             try {
                 if (alert.getDelay() != DRAFT_DELAY) {
-                    scheduleMessage(chatId, times, timesTomorrow, alert.getTimeType(), alert.getDelay());
+                    scheduleMessage(chatId, alert.getId(), cachedTimes.times, cachedTimes.timesTomorrow,
+                            alert.getTimeType(), alert.getDelay());
                 }
             } catch (IllegalStateException e) {
                 bot.replyAndLogError(chatId, "IllegalStateException while scheduling message for " +
@@ -102,7 +410,89 @@ public class Notifier implements BotBean {
         }
     }
 
+    /**
+     * Gets the times of today and tomorrow from the {@link #getHorizon horizon} of a chat, and caches them.
+     */
+    private CachedTimes getTimes(ChatSchedule chatSchedule, LocalDate today) throws ServiceException {
+        Map<LocalDate, SunsetSunriseTimes> horizon = getHorizon(chatSchedule, today);
+        CachedTimes cachedTimes = new CachedTimes(chatSchedule.getUserState().getCoordinates().toCell(),
+                horizon.get(today), horizon.get(today.plusDays(1)));
+        timesCache.put(new CachedTimesKey(chatSchedule.getChatId(), today), cachedTimes);
+        return cachedTimes;
+    }
+
+    /**
+     * Forgets the cached times of a chat. To be called when the chat changes location.
+     */
+    public void invalidateCachedTimes(long chatId) {
+        timesCache.invalidate(new CachedTimesKey(chatId, LocalDate.now()));
+    }
+
+    /**
+     * Gets hit, miss and eviction counters of the cache of the times of today and tomorrow.
+     */
+    public CacheStats getTimesCacheStats() {
+        return timesCache.stats();
+    }
+
+    private void logTimesCacheStats() {
+        CacheStats stats = timesCache.stats();
+        LOG.info("Notifier times cache: {} entries, {} hits, {} misses, {} evictions (hit rate {}).",
+                timesCache.size(), stats.hitCount(), stats.missCount(), stats.evictionCount(),
+                String.format("%.2f", stats.hitRate()));
+    }
+
+    /**
+     * Gets the times of the horizon of a chat, starting from {@code today}. The days which have not been saved yet, or
+     * have been saved for another cell, are computed with a single batch and saved.
+     *
+     * @throws ServiceException if the times of today or tomorrow are neither saved nor can be computed.
+     */
+    private Map<LocalDate, SunsetSunriseTimes> getHorizon(ChatSchedule chatSchedule, LocalDate today)
+            throws ServiceException {
+        long chatId = chatSchedule.getChatId();
+        Coordinates coordinates = chatSchedule.getUserState().getCoordinates();
+        long cell = coordinates.toCell();
+        Map<LocalDate, SunsetSunriseTimes> horizon = new HashMap<>();
+        List<SunsetSunriseQuery> missingDays = new ArrayList<>();
+
+        for (int day = 0; day < horizonDays; day++) {
+            LocalDate date = today.plusDays(day);
+            SavedTimes savedTimes = chatSchedule.getSavedTimes().get(date);
+            if (savedTimes != null && savedTimes.getCoordinateCell() == cell) {
+                horizon.put(date, savedTimes.getTimes());
+            } else {
+                missingDays.add(new SunsetSunriseQuery(coordinates, date));
+            }
+        }
+
+        if (missingDays.isEmpty()) {
+            return horizon;
+        }
+
+        try {
+            List<SunsetSunriseTimes> times =
+                    SunsetSunriseService.await(sunsetSunriseService.getSunsetSunriseTimesAsync(missingDays));
+            List<SavedTimes> newSavedTimes = new ArrayList<>(missingDays.size());
+            for (int i = 0; i < missingDays.size(); i++) {
+                LocalDate date = missingDays.get(i).getDate();
+                horizon.put(date, times.get(i));
+                newSavedTimes.add(new SavedTimes(chatId, date, cell, times.get(i)));
+            }
+            persistenceManager.saveTimes(newSavedTimes);
+        } catch (ServiceException e) {
+            if (!horizon.containsKey(today) || !horizon.containsKey(today.plusDays(1))) {
+                throw e;
+            }
+            LOG.warn("ChatId {}: Cannot compute {} days of the horizon, using the saved times.",
+                    chatId, missingDays.size(), e);
+        }
+
+        return horizon;
+    }
+
     private void scheduleMessage(long chatId,
+                                 long alertId,
                                  SunsetSunriseTimes times,
                                  SunsetSunriseTimes timesTomorrow,
                                  TimeType timeType,
@@ -115,7 +505,7 @@ public class Notifier implements BotBean {
 
         datetime = DateUtils.addMinutes(datetime, (int) delay);
         BotScheduler.ScheduleResult result =
-                scheduler.scheduleMessage(chatId, datetime, formatMessage(timeType, delay));
+                scheduler.scheduleMessage(chatId, alertId, datetime, formatMessage(timeType, delay));
 
         // If message is not scheduled, we try to calculate the sunrise time for the following day and re-schedule.
         if (result.in(NOT_SCHEDULED, NOT_TO_SCHEDULE)) {
@@ -126,7 +516,7 @@ public class Notifier implements BotBean {
             }
 
             datetimeTomorrow = DateUtils.addMinutes(datetimeTomorrow, (int) delay);
-            result = scheduler.scheduleMessage(chatId, datetimeTomorrow, formatMessage(timeType, delay));
+            result = scheduler.scheduleMessage(chatId, alertId, datetimeTomorrow, formatMessage(timeType, delay));
 
             if (result.in(NOT_SCHEDULED, NOT_TO_SCHEDULE)) {
                 LOG.warn("{} message not scheduled even for time {}", timeType.name(), datetimeTomorrow.toString());
@@ -144,31 +534,74 @@ public class Notifier implements BotBean {
 
     private @Nullable
     Date getDateTimeFromTimeType(SunsetSunriseTimes times, TimeType timeType) {
-        LocalDateTime dateTime = times.getTime(timeType.getInternalName());
-        if (dateTime == null) {
+        SunEvent event = timeType.getSunEvent();
+        long epochSecond = event != null ? times.getEpochSecond(event) : SunsetSunriseTimes.NOT_APPLICABLE;
+        if (epochSecond == SunsetSunriseTimes.NOT_APPLICABLE) {
             return null;
         }
 
-        return Date.from(dateTime.toInstant(ZoneOffset.UTC));
+        return new Date(epochSecond * 1000);
     }
 
+    /**
+     * Schedules the daily installation of the notifiers of each {@link Coordinates#toLongitudeBand() longitude band}
+     * half an hour after its central meridian's midnight, when the local day of all of its chats has begun. Each run
+     * goes through the chats of one band only, so the load is spread over the whole day.
+     */
     public void scheduleDailyAllNotifiersInstaller() {
-        scheduler.schedule(new ScheduledNotifiersInstaller(),
-                Date.from(LocalTime.of(0, 0) // Midnight
-                        .atDate(LocalDate.now().plusDays(1)) // Tomorrow
-                        .atZone(ZoneOffset.UTC) // At UTC
-                        .toInstant()),
-                60 * 60 * 24 * 1000); // Every 24 hours
+        for (int band = 0; band < Coordinates.LONGITUDE_BANDS; band++) {
+            scheduler.schedule(new ScheduledNotifiersInstaller(band),
+                    Date.from(getDailyInstallTime(band)
+                            .atDate(LocalDate.now(ZoneOffset.UTC)) // Today, or tomorrow if already passed
+                            .atZone(ZoneOffset.UTC) // At UTC
+                            .toInstant()),
+                    60 * 60 * 24 * 1000); // Every 24 hours
+        }
     }
 
-    private SunsetSunriseTimes calculateSunriseAndSunset(long chatId, LocalDate date) throws ServiceException {
-        Coordinates coordinates = persistenceManager.getUserState(chatId).getCoordinates();
-        return sunsetSunriseService.getSunsetSunriseTimes(coordinates, date);
+    /**
+     * Gets when the notifiers of a longitude band are installed every day, at UTC: half an hour after the band's
+     * midnight.
+     */
+    private static LocalTime getDailyInstallTime(int longitudeBand) {
+        return LocalTime.of(Math.floorMod(-longitudeBand, 24), 30);
     }
 
-    private SunsetSunriseTimes calculateSunriseAndSunset(long chatId) throws ServiceException {
-        return calculateSunriseAndSunset(chatId, LocalDate.now());
+    /**
+     * The times of today and tomorrow of a chat, computed for the coordinates in {@link #cell}.
+     */
+    private static class CachedTimes {
+        private final long cell;
+        private final SunsetSunriseTimes times;
+        private final SunsetSunriseTimes timesTomorrow;
+
+        private CachedTimes(long cell, SunsetSunriseTimes times, SunsetSunriseTimes timesTomorrow) {
+            this.cell = cell;
+            this.times = times;
+            this.timesTomorrow = timesTomorrow;
+        }
     }
 
+    private static class CachedTimesKey {
+        private final long chatId;
+        private final LocalDate date;
+
+        private CachedTimesKey(long chatId, LocalDate date) {
+            this.chatId = chatId;
+            this.date = date;
+        }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CachedTimesKey that = (CachedTimesKey) o;
+            return chatId == that.chatId && date.equals(that.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(chatId, date);
+        }
+    }
 }
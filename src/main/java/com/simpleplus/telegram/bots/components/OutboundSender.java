@@ -0,0 +1,234 @@
+package com.simpleplus.telegram.bots.components;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.simpleplus.telegram.bots.components.sender.MessagePriority;
+import com.simpleplus.telegram.bots.components.sender.TokenBucket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the messages of the bot within the rate limits of Telegram.
+ * <p>
+ * Messages are queued and sent by priority (see {@link MessagePriority}), then in the order they were queued. A
+ * message is sent only when a token is available in:
+ * <ul>
+ * <li>the global bucket: {@code outbound-global-rate} (30) messages per second;</li>
+ * <li>the bucket of its chat: {@code outbound-chat-rate} (1) messages per second;</li>
+ * <li>for groups, the bucket of its group: {@code outbound-group-rate-per-minute} (20) messages per minute.</li>
+ * </ul>
+ * A message whose chat has no tokens is set aside until it has, without holding up the messages of other chats. When
+ * Telegram answers "429 Too Many Requests", the chat is paused for the {@code retry_after} seconds it asks for and the
+ * message is queued again.
+ */
+public class OutboundSender implements BotBean {
+    private static final Logger LOG = LogManager.getLogger(OutboundSender.class);
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private SunriseSunsetBot bot;
+    private final PriorityBlockingQueue<OutboundMessage> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private TokenBucket globalBucket;
+    private Cache<Long, TokenBucket> chatBuckets;
+    private Cache<Long, TokenBucket> groupBuckets;
+    private double chatRate;
+    private double groupRatePerMinute;
+    private int senderThreads;
+    private ExecutorService senderPool;
+    private Thread dispatcher;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    @Override
+    public void init() {
+        this.bot = (SunriseSunsetBot) BotContext.getDefaultContext().getBean(SunriseSunsetBot.class);
+        PropertiesManager propertiesManager =
+                (PropertiesManager) BotContext.getDefaultContext().getBean(PropertiesManager.class);
+
+        double globalRate = Double.parseDouble(propertiesManager.getPropertyOrDefault("outbound-global-rate", "30"));
+        this.globalBucket = new TokenBucket(globalRate, globalRate, System.currentTimeMillis());
+        this.chatRate = Double.parseDouble(propertiesManager.getPropertyOrDefault("outbound-chat-rate", "1"));
+        this.groupRatePerMinute =
+                Double.parseDouble(propertiesManager.getPropertyOrDefault("outbound-group-rate-per-minute", "20"));
+        this.senderThreads = Integer.parseInt(propertiesManager.getPropertyOrDefault("outbound-sender-threads", "8"));
+
+        // Idle buckets are full, so they can be dropped and created again when needed
+        this.chatBuckets = CacheBuilder.newBuilder().expireAfterAccess(Duration.ofMinutes(5)).build();
+        this.groupBuckets = CacheBuilder.newBuilder().expireAfterAccess(Duration.ofMinutes(5)).build();
+    }
+
+    public synchronized void shutDown() {
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+            senderPool.shutdown();
+        }
+        if (!queue.isEmpty()) {
+            LOG.warn("{} outgoing messages were not sent.", queue.size());
+        }
+    }
+
+    /**
+     * Queues a message to be sent.
+     *
+     * @param method   the method which sends the message.
+     * @param chatId   the chat the message is sent to.
+     * @param text     the text of the message, for logging.
+     * @param priority the priority of the message.
+     */
+    public void send(BotApiMethod<?> method, long chatId, String text, MessagePriority priority) {
+        startIfNeeded();
+        queue.offer(new OutboundMessage(method, chatId, text, priority, sequence.getAndIncrement()));
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    private synchronized void startIfNeeded() {
+        if (dispatcher != null) {
+            return;
+        }
+
+        senderPool = Executors.newFixedThreadPool(senderThreads, new ThreadFactoryBuilder()
+                .setNameFormat("outbound-sender-%d")
+                .setDaemon(true)
+                .build());
+        dispatcher = new Thread(this::dispatch, "outbound-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    private void dispatch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                OutboundMessage message = queue.take();
+
+                long globalWait;
+                while ((globalWait = globalBucket.getWaitMillis(System.currentTimeMillis())) > 0) {
+                    Thread.sleep(globalWait);
+                }
+
+                long now = System.currentTimeMillis();
+                TokenBucket chatBucket = getChatBucket(message.chatId, now);
+                TokenBucket groupBucket = isGroup(message.chatId) ? getGroupBucket(message.chatId, now) : null;
+                long chatWait = Math.max(chatBucket.getWaitMillis(now),
+                        groupBucket != null ? groupBucket.getWaitMillis(now) : 0);
+
+                if (chatWait > 0) {
+                    CompletableFuture.delayedExecutor(chatWait, TimeUnit.MILLISECONDS)
+                            .execute(() -> queue.offer(message));
+                    continue;
+                }
+
+                globalBucket.consume(now);
+                chatBucket.consume(now);
+                if (groupBucket != null) {
+                    groupBucket.consume(now);
+                }
+                senderPool.execute(() -> execute(message));
+            }
+        } catch (InterruptedException e) {
+            LOG.info("Outbound dispatcher interrupted.");
+        } catch (RejectedExecutionException e) {
+            LOG.info("Outbound sender pool shut down.");
+        }
+    }
+
+    private void execute(OutboundMessage message) {
+        try {
+            bot.execute(message.method);
+            sent.incrementAndGet();
+            LOG.info("ChatId {}: Outgoing message: {}", message.chatId, message.text);
+        } catch (TelegramApiRequestException e) {
+            if (isTooManyRequests(e)) {
+                long retryAfterMillis = e.getParameters().getRetryAfter() * 1000L;
+                LOG.warn("ChatId {}: Too many requests, retrying in {} ms.", message.chatId, retryAfterMillis);
+                rateLimited.incrementAndGet();
+                long now = System.currentTimeMillis();
+                getChatBucket(message.chatId, now).pauseUntil(now + retryAfterMillis);
+                queue.offer(message);
+            } else {
+                failed.incrementAndGet();
+                bot.onReplyFailed(message.chatId, e);
+            }
+        } catch (TelegramApiException e) {
+            failed.incrementAndGet();
+            LOG.warn("ChatId " + message.chatId + ": TelegramApiException during reply. Chat NOT flagged as expired.",
+                    e);
+        }
+    }
+
+    private boolean isTooManyRequests(TelegramApiRequestException e) {
+        return e.getErrorCode() != null && e.getErrorCode() == TOO_MANY_REQUESTS &&
+                e.getParameters() != null && e.getParameters().getRetryAfter() != null;
+    }
+
+    private TokenBucket getChatBucket(long chatId, long now) {
+        try {
+            return chatBuckets.get(chatId, () -> new TokenBucket(1, chatRate, now));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private TokenBucket getGroupBucket(long chatId, long now) {
+        try {
+            return groupBuckets.get(chatId, () -> new TokenBucket(groupRatePerMinute, groupRatePerMinute / 60, now));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isGroup(long chatId) {
+        // Telegram gives negative IDs to groups and channels
+        return chatId < 0;
+    }
+
+    private static class OutboundMessage implements Comparable<OutboundMessage> {
+        private final BotApiMethod<?> method;
+        private final long chatId;
+        private final String text;
+        private final MessagePriority priority;
+        private final long sequence;
+
+        private OutboundMessage(BotApiMethod<?> method,
+                                long chatId,
+                                String text,
+                                MessagePriority priority,
+                                long sequence) {
+            this.method = method;
+            this.chatId = chatId;
+            this.text = text;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(OutboundMessage other) {
+            int result = priority.compareTo(other.priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -1,37 +1,136 @@
 package com.simpleplus.telegram.bots.components;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.simpleplus.telegram.bots.components.persistence.SchemaMigrator;
+import com.simpleplus.telegram.bots.datamodel.BandInstall;
+import com.simpleplus.telegram.bots.datamodel.ChatSchedule;
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.PendingAlert;
 import com.simpleplus.telegram.bots.datamodel.SavedChat;
+import com.simpleplus.telegram.bots.datamodel.SavedTimes;
 import com.simpleplus.telegram.bots.datamodel.Step;
 import com.simpleplus.telegram.bots.datamodel.UserAlert;
 import com.simpleplus.telegram.bots.datamodel.UserState;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.h2.tools.Server;
+import org.hibernate.Session;
 
+import javax.annotation.Nullable;
 import javax.persistence.*;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
+import java.nio.file.Paths;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Stores chats and their alerts in the database.
+ * <p>
+ * {@link UserState}s are kept in memory: reads are served from a cache of at most
+ * {@code persistence-user-states-cache-size} chats (100000) after the first one, while writes are collected and
+ * persisted in a single transaction every {@code persistence-flush-millis} milliseconds (write-behind). Chats with a
+ * pending write are never evicted. Pending writes are also persisted before any operation which reads chats or alerts
+ * from the database, and on {@link #shutDown()}. New {@link PendingAlert}s are persisted in the same way.
+ */
 public class PersistenceManager implements BotBean {
     private static final Logger LOG = LogManager.getLogger(PersistenceManager.class);
+    private static final String UPDATE_USER_STATE = "UPDATE SavedChat c SET " +
+            "c.userState.step = :step, " +
+            "c.userState.coordinates.latitude = :latitude, " +
+            "c.userState.coordinates.longitude = :longitude, " +
+            "c.coordinateCell = :coordinateCell, " +
+            "c.longitudeBand = :longitudeBand, " +
+            "c.userState.isAdmin = :isAdmin " +
+            "WHERE c.chatId = :chatId";
+    private static final String UPDATE_STEP = "UPDATE SavedChat c SET " +
+            "c.userState.step = :step, " +
+            "c.userState.isAdmin = :isAdmin " +
+            "WHERE c.chatId = :chatId";
+    private static final String SELECT_USER_STATES_PAGE = "SELECT c.chatId, c.userState.step, " +
+            "c.userState.coordinates.latitude, c.userState.coordinates.longitude, c.userState.isAdmin " +
+            "FROM SavedChat c " +
+            "WHERE c.chatId > :lastChatId AND c.userState.step IN :steps";
+    private static final String ONLY_ADMINS = " AND c.userState.isAdmin = :isAdmin";
+    private static final String ONLY_LONGITUDE_BAND = " AND c.longitudeBand = :longitudeBand";
+    private static final String ORDER_BY_CHAT_ID = " ORDER BY c.chatId";
     private PropertiesManager propertiesManager;
     private Server tcpServer;
+    private ScheduledExecutorService flusher;
+
+    // Values are never modified: callers always get and set copies. The pending writes are kept apart, so that they
+    // are never evicted before being persisted
+    private Cache<Long, UserState> userStates = buildUserStatesCache(100000);
+    private final Map<Long, UserState> unsavedUserStates = new ConcurrentHashMap<>();
+    // By chat, so that the ones of a chat can be looked up and dropped without going through all of them
+    private final Map<Long, List<PendingAlert>> unsavedPendingAlerts = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
 
     protected EntityManagerFactory emFactory;
+    protected int pageSize = 500;
 
     public void init() {
         propertiesManager = (PropertiesManager) BotContext.getDefaultContext().getBean(PropertiesManager.class);
-        startEmbeddedTCPServer();
+        pageSize = Integer.parseInt(propertiesManager.getPropertyOrDefault("persistence-page-size", "500"));
+        userStates = buildUserStatesCache(
+                Long.parseLong(propertiesManager.getPropertyOrDefault("persistence-user-states-cache-size", "100000")));
+        // In embedded mode the TCP server is only needed to inspect the database from outside
+        if (isTCPMode() ||
+                Boolean.parseBoolean(propertiesManager.getPropertyOrDefault("bot-db-tcp-server", "false"))) {
+            startTCPServer();
+        }
         createEMFactory();
+        migrateSchema();
+        startFlusher();
     }
 
-    private void startEmbeddedTCPServer() {
+    private static Cache<Long, UserState> buildUserStatesCache(long maximumSize) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    private void migrateSchema() {
+        EntityManager em = createEntityManager();
+        try {
+            em.unwrap(Session.class).doWork(connection -> {
+                int version = new SchemaMigrator().migrate(connection);
+                LOG.info("Database schema at version {}.", version);
+            });
+        } finally {
+            em.close();
+        }
+    }
+
+    private void startFlusher() {
+        long flushMillis =
+                Long.parseLong(propertiesManager.getPropertyOrDefault("persistence-flush-millis", "1000"));
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("persistence-flusher")
+                .setDaemon(true)
+                .build());
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                LOG.error("Exception while flushing, will retry.", e);
+            }
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void startTCPServer() {
         try {
             tcpServer = Server.createTcpServer(
                     "-tcpAllowOthers",
@@ -44,19 +143,74 @@ public class PersistenceManager implements BotBean {
         }
     }
 
+    /**
+     * Creates the {@link EntityManagerFactory} on a HikariCP connection pool.
+     * <p>
+     * In {@code embedded} mode connections are in-process; in {@code tcp} mode they go through the TCP server.
+     */
     protected void createEMFactory() {
+        String database = propertiesManager.getPropertyOrDefault("bot-database", "db");
+        String url = isTCPMode() ?
+                "jdbc:h2:tcp://localhost:" + propertiesManager.getPropertyOrDefault("bot-db-port", "8082") + "/" +
+                        database :
+                "jdbc:h2:" + toEmbeddedPath(database);
+        // H2 caches the prepared statements of each connection, which the pool keeps open
+        url += ";QUERY_CACHE_SIZE=" + propertiesManager.getPropertyOrDefault("bot-db-statement-cache-size", "64");
+        String poolSize = propertiesManager.getPropertyOrDefault("bot-db-pool-size", "10");
+
         Map<String, String> persistenceMap = new HashMap<>();
-        persistenceMap.put("javax.persistence.jdbc.url", "jdbc:h2:tcp://localhost:" +
-                propertiesManager.getPropertyOrDefault("bot-db-port", "8082") + "/" +
-                propertiesManager.getPropertyOrDefault("bot-database", "db"));
-        persistenceMap.put("javax.persistence.jdbc.user",
+        persistenceMap.put("hibernate.connection.provider_class",
+                "org.hibernate.hikaricp.internal.HikariCPConnectionProvider");
+        persistenceMap.put("hibernate.connection.url", url);
+        persistenceMap.put("hibernate.connection.username",
                 propertiesManager.getPropertyOrDefault("bot-db-user", "sa"));
-        persistenceMap.put("javax.persistence.jdbc.password",
+        persistenceMap.put("hibernate.connection.password",
                 propertiesManager.getPropertyOrDefault("bot-db-password", ""));
+        persistenceMap.put("hibernate.hikari.poolName", "bot-db-pool");
+        persistenceMap.put("hibernate.hikari.maximumPoolSize", poolSize);
+        persistenceMap.put("hibernate.hikari.minimumIdle", poolSize);
         emFactory = Persistence.createEntityManagerFactory("h2", persistenceMap);
+        LOG.info("Connected to database {} with a pool of {} connections.", url, poolSize);
+    }
+
+    /**
+     * Gets the path of an embedded database: relative to the working directory if {@code database} is a bare name,
+     * unchanged if it is already relative to the home ({@code ~/}) or the working directory ({@code ./}), or absolute.
+     */
+    private static String toEmbeddedPath(String database) {
+        if (database.startsWith("~/") || database.startsWith("./") || Paths.get(database).isAbsolute()) {
+            return database;
+        }
+        return "./" + database;
+    }
+
+    private boolean isTCPMode() {
+        String mode = propertiesManager.getPropertyOrDefault("bot-db-mode", "embedded");
+        switch (mode) {
+            case "embedded":
+                return false;
+            case "tcp":
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown bot-db-mode '" + mode + "'.");
+        }
     }
 
     public void shutDown() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                LOG.error("InterruptedException while waiting for the flusher to terminate.", e);
+            }
+        }
+        flush();
+
+        if (emFactory != null) {
+            // Closes the connection pool
+            emFactory.close();
+        }
         if (tcpServer != null) {
             tcpServer.shutdown();
         }
@@ -73,46 +227,328 @@ public class PersistenceManager implements BotBean {
         return savedChat;
     }
 
+    /**
+     * Persists all the pending {@link UserState} writes.
+     */
+    public void flush() {
+        flush(new ArrayList<>(unsavedUserStates.keySet()));
+        flushPendingAlerts();
+    }
+
+    private void flush(long chatId) {
+        flush(Collections.singletonList(chatId));
+    }
+
+    private void flush(Collection<Long> chatIds) {
+        // A flush in progress holds the lock: waiting for it guarantees that the chats are in the database on return
+        synchronized (writeLock) {
+            Map<Long, UserState> statesToFlush = new HashMap<>();
+            for (Long chatId : chatIds) {
+                UserState userState = unsavedUserStates.remove(chatId);
+                if (userState != null) {
+                    statesToFlush.put(chatId, userState);
+                }
+            }
+            if (statesToFlush.isEmpty()) {
+                return;
+            }
+
+            try {
+                inTransaction(em -> {
+                    for (Map.Entry<Long, UserState> entry : statesToFlush.entrySet()) {
+                        UserState userState = new UserState(entry.getValue());
+                        if (updateUserState(em, entry.getKey(), userState) == 0) {
+                            em.persist(new SavedChat(entry.getKey(), userState));
+                        }
+                    }
+                    return null;
+                });
+                LOG.debug("Flushed {} user states.", statesToFlush.size());
+            } catch (RuntimeException e) {
+                // Unless they have been set again in the meantime
+                statesToFlush.forEach(unsavedUserStates::putIfAbsent);
+                throw e;
+            }
+        }
+    }
+
+    private void flushPendingAlerts() {
+        synchronized (writeLock) {
+            List<PendingAlert> pendingAlerts = new ArrayList<>();
+            for (Long chatId : new ArrayList<>(unsavedPendingAlerts.keySet())) {
+                List<PendingAlert> unsaved = unsavedPendingAlerts.remove(chatId);
+                if (unsaved != null) {
+                    synchronized (unsaved) {
+                        pendingAlerts.addAll(unsaved);
+                    }
+                }
+            }
+            if (pendingAlerts.isEmpty()) {
+                return;
+            }
+
+            try {
+                int saved = inTransaction(em -> {
+                    List<PendingAlert> newPendingAlerts = withoutSavedPendingAlerts(em, pendingAlerts);
+                    newPendingAlerts.forEach(em::persist);
+                    return newPendingAlerts.size();
+                });
+                LOG.debug("Flushed {} pending alerts ({} already saved).", saved, pendingAlerts.size() - saved);
+            } catch (RuntimeException e) {
+                pendingAlerts.forEach(this::addPendingAlert);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Drops the {@link PendingAlert}s which are already saved or repeated, i.e. those of the same chat and
+     * {@link UserAlert} to be sent at the same time. The saved ones are read with a query for each page of chats.
+     */
+    private List<PendingAlert> withoutSavedPendingAlerts(EntityManager em, List<PendingAlert> pendingAlerts) {
+        long minFireTime = pendingAlerts.stream().mapToLong(PendingAlert::getFireTime).min().orElse(0);
+        List<Long> chatIds = pendingAlerts.stream().map(PendingAlert::getChatId).distinct().collect(Collectors.toList());
+        Set<PendingAlertKey> keys = new HashSet<>();
+
+        for (List<Long> page : Lists.partition(chatIds, pageSize)) {
+            em.createQuery("SELECT a.chatId, a.alertId, a.fireTime FROM PendingAlert a " +
+                    "WHERE a.chatId IN :chatIds AND a.fireTime >= :minFireTime", Object[].class)
+                    .setParameter("chatIds", page)
+                    .setParameter("minFireTime", minFireTime)
+                    .getResultList()
+                    .forEach(row -> keys.add(new PendingAlertKey((Long) row[0],
+                            row[1] != null ? (Long) row[1] : 0, (Long) row[2])));
+        }
+
+        List<PendingAlert> newPendingAlerts = new ArrayList<>(pendingAlerts.size());
+        for (PendingAlert pendingAlert : pendingAlerts) {
+            if (keys.add(new PendingAlertKey(pendingAlert.getChatId(), pendingAlert.getAlertId(),
+                    pendingAlert.getFireTime()))) {
+                newPendingAlerts.add(pendingAlert);
+            }
+        }
+        return newPendingAlerts;
+    }
+
+    /**
+     * Updates the columns of a {@link UserState} with a single-row UPDATE, without loading the {@link SavedChat}.
+     *
+     * @return the number of updated rows, i.e. 0 if the chat does not exist yet.
+     */
+    private int updateUserState(EntityManager em, long chatId, UserState userState) {
+        Query query;
+        if (userState.getCoordinates() != null) {
+            query = em.createQuery(UPDATE_USER_STATE)
+                    .setParameter("latitude", userState.getCoordinates().getLatitude())
+                    .setParameter("longitude", userState.getCoordinates().getLongitude())
+                    .setParameter("coordinateCell", userState.getCoordinates().toCell())
+                    .setParameter("longitudeBand", userState.getCoordinates().toLongitudeBand());
+        } else {
+            // Coordinates columns are not nullable: a chat without coordinates keeps the ones it had
+            query = em.createQuery(UPDATE_STEP);
+        }
+
+        return query.setParameter("step", userState.getStep())
+                .setParameter("isAdmin", userState.isAdmin())
+                .setParameter("chatId", chatId)
+                .executeUpdate();
+    }
+
+    /**
+     * Runs {@code work} in a single transaction of a new {@link EntityManager}.
+     */
+    private <T> T inTransaction(Function<EntityManager, T> work) {
+        EntityManager em = createEntityManager();
+        EntityTransaction transaction = em.getTransaction();
+
+        try {
+            transaction.begin();
+            T result = work.apply(em);
+            transaction.commit();
+            return result;
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Drops the in-memory {@link UserState}s, including the pending writes.
+     */
+    protected void clearCache() {
+        synchronized (writeLock) {
+            unsavedUserStates.clear();
+            userStates.invalidateAll();
+            unsavedPendingAlerts.clear();
+        }
+    }
+
     // The following methods act on the UserState part of a SavedChat
 
     /**
      * Gets the {@link UserState} associated with a {@code chatId}.
      *
      * @param chatId the {@code chatId} to look for
-     * @return the {@link UserState} associated
+     * @return a copy of the {@link UserState} associated
      */
     public UserState getUserState(long chatId) {
-        SavedChat savedChat = getSavedChat(chatId);
-        return savedChat != null ? savedChat.getUserState() : null;
+        UserState userState = unsavedUserStates.get(chatId);
+        if (userState == null) {
+            userState = userStates.getIfPresent(chatId);
+        }
+
+        if (userState == null) {
+            SavedChat savedChat = getSavedChat(chatId);
+            if (savedChat == null || savedChat.getUserState() == null) {
+                return null;
+            }
+            // A state set in the meantime is newer than the saved one
+            UserState cached = userStates.asMap().putIfAbsent(chatId, savedChat.getUserState());
+            userState = cached != null ? cached : savedChat.getUserState();
+        }
+
+        return new UserState(userState);
     }
 
     /**
      * Gets a map of all the {@link UserState}s in the database.
+     * <p>
+     * The whole map is held in memory: to go through many chats, prefer {@link #forEachUserState}.
      *
      * @return a map of {@link UserState}s
      */
-    public Map<Long, UserState> getUserStatesMap() {
-        Map<Long, UserState> result = new HashMap<>();
+    public Long2ObjectMap<UserState> getUserStatesMap() {
+        Long2ObjectMap<UserState> result = new Long2ObjectOpenHashMap<>();
+        forEachUserState(EnumSet.allOf(Step.class), false, (chatId, userState) -> result.put((long) chatId, userState));
+        return result;
+    }
 
-        EntityManager em = createEntityManager();
-        CriteriaBuilder cb = em.getCriteriaBuilder();
-        CriteriaQuery<SavedChat> q = cb.createQuery(SavedChat.class);
-        Root<SavedChat> c = q.from(SavedChat.class);
-        q.select(c);
-        TypedQuery<SavedChat> query = em.createQuery(q);
-        List<SavedChat> results = query.getResultList();
+    /**
+     * Calls {@code action} for each chat whose step is one of {@code steps}, in ascending {@code chatId} order.
+     * <p>
+     * Chats are read in pages of {@code persistence-page-size} rows (keyset pagination on {@code chatId}), each in
+     * its own {@link EntityManager}, and only the columns of their {@link UserState} are selected: memory usage does
+     * not depend on the number of chats. Chats changed while iterating may or may not be seen with their latest
+     * state.
+     *
+     * @param steps      the steps of the chats to go through.
+     * @param onlyAdmins if {@code true}, only administrators' chats are considered.
+     * @param action     the action to call with the {@code chatId} and its {@link UserState}.
+     */
+    public void forEachUserState(Set<Step> steps, boolean onlyAdmins, BiConsumer<Long, UserState> action) {
+        forEachPage(steps, onlyAdmins, null, page -> page.forEach(action));
+    }
+
+    /**
+     * Calls {@code action} with the {@link ChatSchedule} of each chat whose step is one of {@code steps}, in ascending
+     * {@code chatId} order.
+     * <p>
+     * Chats are read in pages as in {@link #forEachUserState}, and the {@link UserAlert}s and {@link SavedTimes} of
+     * each page are read with two more queries: the number of queries depends on the number of pages, not of chats.
+     *
+     * @param steps  the steps of the chats to go through.
+     * @param action the action to call with each {@link ChatSchedule}.
+     */
+    public void forEachChatSchedule(Set<Step> steps, Consumer<ChatSchedule> action) {
+        forEachChatSchedule(steps, null, action);
+    }
+
+    /**
+     * Same as {@link #forEachChatSchedule(Set, Consumer)}, but only for the chats in a
+     * {@link Coordinates#toLongitudeBand() longitude band}.
+     *
+     * @param steps         the steps of the chats to go through.
+     * @param longitudeBand the longitude band of the chats, or {@code null} for all the chats.
+     * @param action        the action to call with each {@link ChatSchedule}.
+     */
+    public void forEachChatSchedule(Set<Step> steps, @Nullable Integer longitudeBand, Consumer<ChatSchedule> action) {
+        forEachPage(steps, false, longitudeBand, page -> {
+            Map<Long, Set<UserAlert>> userAlerts = getUserAlerts(page.keySet());
+            Map<Long, Map<LocalDate, SavedTimes>> savedTimes = getSavedTimes(page.keySet());
+            page.forEach((chatId, userState) -> action.accept(new ChatSchedule(chatId, userState,
+                    userAlerts.getOrDefault(chatId, new HashSet<>()),
+                    savedTimes.getOrDefault(chatId, new HashMap<>()))));
+        });
+    }
+
+    private void forEachPage(Set<Step> steps,
+                             boolean onlyAdmins,
+                             @Nullable Integer longitudeBand,
+                             Consumer<NavigableMap<Long, UserState>> action) {
+        flush();
+
+        String jpql = SELECT_USER_STATES_PAGE + (onlyAdmins ? ONLY_ADMINS : "") +
+                (longitudeBand != null ? ONLY_LONGITUDE_BAND : "") + ORDER_BY_CHAT_ID;
+        long lastChatId = Long.MIN_VALUE;
+        NavigableMap<Long, UserState> page = new TreeMap<>();
+
+        do {
+            List<Object[]> rows;
+            EntityManager em = createEntityManager();
+            try {
+                TypedQuery<Object[]> query = em.createQuery(jpql, Object[].class)
+                        .setParameter("lastChatId", lastChatId)
+                        .setParameter("steps", steps)
+                        .setMaxResults(pageSize);
+                if (onlyAdmins) {
+                    query.setParameter("isAdmin", true);
+                }
+                if (longitudeBand != null) {
+                    query.setParameter("longitudeBand", longitudeBand);
+                }
+                rows = query.getResultList();
+            } finally {
+                em.close();
+            }
+
+            page.clear();
+            for (Object[] row : rows) {
+                page.put((Long) row[0], new UserState(
+                        new Coordinates((Double) row[2], (Double) row[3]), (Step) row[1], (Boolean) row[4]));
+            }
+
+            if (!page.isEmpty()) {
+                lastChatId = page.lastKey();
+                action.accept(page);
+            }
+        } while (page.size() == pageSize);
+    }
 
-        for (SavedChat savedChat : results) {
-            result.put(savedChat.getChatId(), savedChat.getUserState());
+    private Map<Long, Set<UserAlert>> getUserAlerts(Collection<Long> chatIds) {
+        EntityManager em = createEntityManager();
+        List<UserAlert> userAlerts;
+        try {
+            userAlerts = em.createQuery("SELECT a FROM UserAlert a WHERE a.chatId IN :chatIds", UserAlert.class)
+                    .setParameter("chatIds", chatIds)
+                    .getResultList();
+        } finally {
+            em.close();
         }
 
-        em.close();
+        return userAlerts.stream().collect(Collectors.groupingBy(UserAlert::getChatId, Collectors.toSet()));
+    }
 
-        return result;
+    private Map<Long, Map<LocalDate, SavedTimes>> getSavedTimes(Collection<Long> chatIds) {
+        EntityManager em = createEntityManager();
+        List<SavedTimes> savedTimes;
+        try {
+            savedTimes = em.createQuery("SELECT t FROM SavedTimes t WHERE t.chatId IN :chatIds", SavedTimes.class)
+                    .setParameter("chatIds", chatIds)
+                    .getResultList();
+        } finally {
+            em.close();
+        }
+
+        return savedTimes.stream().collect(Collectors.groupingBy(SavedTimes::getChatId,
+                Collectors.toMap(SavedTimes::getDate, Function.identity())));
     }
 
     /**
-     * Sets a {@link UserState} for a certain {@code chatId}.
+     * Sets a {@link UserState} for a certain {@code chatId}. The {@link UserState} is persisted asynchronously.
      *
      * @param chatId    the {@code chatId} for which the {@link UserState} has to be set
      * @param userState the {@link UserState}
@@ -120,22 +556,9 @@ public class PersistenceManager implements BotBean {
     public void setUserState(long chatId, UserState userState) {
         LOG.debug("ChatId {}: Setting UserState: {}", chatId, userState);
 
-        EntityManager em = createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        transaction.begin();
-
-        SavedChat savedChat = getSavedChat(chatId);
-        if (savedChat == null) {
-            savedChat = new SavedChat();
-            savedChat.setChatId(chatId);
-        }
-
-        savedChat.setUserState(userState);
-        em.merge(savedChat);
-        em.flush();
-        transaction.commit();
-        em.close();
+        UserState copy = new UserState(userState);
+        userStates.put(chatId, copy);
+        unsavedUserStates.put(chatId, copy);
     }
 
     /**
@@ -186,61 +609,294 @@ public class PersistenceManager implements BotBean {
      * @return the {@link UserAlert}s associated
      */
     public Set<UserAlert> getUserAlerts(long chatId) {
-        SavedChat savedChat = getSavedChat(chatId);
-        return savedChat.getUserAlerts();
+        EntityManager em = createEntityManager();
+        List<UserAlert> userAlerts = em.createQuery("SELECT a FROM UserAlert a WHERE a.chatId = :chatId",
+                UserAlert.class)
+                .setParameter("chatId", chatId)
+                .getResultList();
+        em.close();
+
+        return new HashSet<>(userAlerts);
     }
 
     /**
-     * Adds a {@link UserAlert} to the {@link SavedChat} to which it's associated.
+     * Adds a {@link UserAlert} to the {@link SavedChat} to which it's associated, unless an equal one (apart from the
+     * id) already exists.
      *
      * @param userAlert the {@link UserAlert} to be added
+     * @return {@code true} if the {@link UserAlert} has been added
      */
     public boolean addUserAlert(UserAlert userAlert) {
-        EntityManager em = createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        transaction.begin();
-        SavedChat savedChat = getSavedChat(userAlert.getChatId());
-        boolean res = savedChat.addUserAlert(userAlert);
-        em.merge(savedChat);
-        em.flush();
-        transaction.commit();
-        em.close();
-
-        return res;
+        synchronized (writeLock) {
+            // The chat must be in the database before its alerts
+            flush(userAlert.getChatId());
+
+            return inTransaction(em -> {
+                if (existsEqualUserAlert(em, userAlert)) {
+                    return false;
+                }
+
+                em.persist(userAlert);
+                return true;
+            });
+        }
     }
 
     /**
      * Deletes a {@link UserAlert} from the {@link SavedChat} to which it's associated.
      */
     public void deleteUserAlert(long chatId, long alertId) {
-        EntityManager em = createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
+        inTransaction(em -> em.createQuery("DELETE FROM UserAlert a WHERE a.id = :id AND a.chatId = :chatId")
+                .setParameter("id", alertId)
+                .setParameter("chatId", chatId)
+                .executeUpdate());
+    }
 
-        transaction.begin();
-        SavedChat savedChat = getSavedChat(chatId);
-        savedChat.deleteUserAlert(alertId);
-        em.merge(savedChat);
-        em.flush();
-        transaction.commit();
-        em.close();
+    /**
+     * Deletes all the {@link UserAlert}s with the given delay, of every chat, with a single statement.
+     *
+     * @return the number of deleted {@link UserAlert}s
+     */
+    public int deleteUserAlertsWithDelay(long delay) {
+        return inTransaction(em -> em.createQuery("DELETE FROM UserAlert a WHERE a.delay = :delay")
+                .setParameter("delay", delay)
+                .executeUpdate());
     }
 
     /**
      * Edits a {@link UserAlert} from the {@link SavedChat} to which it's associated.
+     * <p>
+     * It may happen that another {@code userAlert} equal to the edited one already exists: in this case, the
+     * {@code userAlert} is removed and {@code false} is returned. Editing a {@code userAlert} to its current values
+     * leaves it untouched.
+     *
+     * @return {@code false} if edit has gone wrong, {@code true} otherwise.
      */
     public boolean editUserAlert(UserAlert userAlert) {
+        return inTransaction(em -> {
+            UserAlert savedUserAlert = em.find(UserAlert.class, userAlert.getId());
+            if (savedUserAlert == null || savedUserAlert.getChatId() != userAlert.getChatId()) {
+                return false;
+            }
+
+            if (existsOtherEqualUserAlert(em, userAlert)) {
+                em.remove(savedUserAlert);
+                return false;
+            }
+
+            savedUserAlert.setTimeType(userAlert.getTimeType());
+            savedUserAlert.setDelay(userAlert.getDelay());
+            return true;
+        });
+    }
+
+    private boolean existsEqualUserAlert(EntityManager em, UserAlert userAlert) {
+        return em.createQuery("SELECT COUNT(a) FROM UserAlert a " +
+                "WHERE a.chatId = :chatId AND a.timeType = :timeType AND a.delay = :delay", Long.class)
+                .setParameter("chatId", userAlert.getChatId())
+                .setParameter("timeType", userAlert.getTimeType())
+                .setParameter("delay", userAlert.getDelay())
+                .getSingleResult() > 0;
+    }
+
+    private boolean existsOtherEqualUserAlert(EntityManager em, UserAlert userAlert) {
+        return em.createQuery("SELECT COUNT(a) FROM UserAlert a " +
+                "WHERE a.chatId = :chatId AND a.timeType = :timeType AND a.delay = :delay AND a.id <> :id", Long.class)
+                .setParameter("chatId", userAlert.getChatId())
+                .setParameter("timeType", userAlert.getTimeType())
+                .setParameter("delay", userAlert.getDelay())
+                .setParameter("id", userAlert.getId())
+                .getSingleResult() > 0;
+    }
+
+    // The following methods act on the SavedTimes of a chat
+
+    /**
+     * Gets the {@link SavedTimes} of a chat, by date.
+     */
+    public Map<LocalDate, SavedTimes> getSavedTimes(long chatId) {
+        return getSavedTimes(Collections.singleton(chatId)).getOrDefault(chatId, new HashMap<>());
+    }
+
+    /**
+     * Saves {@link SavedTimes}, replacing the ones of the same chats and dates.
+     */
+    public void saveTimes(Collection<SavedTimes> savedTimes) {
+        inTransaction(em -> {
+            for (SavedTimes times : savedTimes) {
+                em.createQuery("DELETE FROM SavedTimes t WHERE t.chatId = :chatId AND t.date = :date")
+                        .setParameter("chatId", times.getChatId())
+                        .setParameter("date", times.getDate())
+                        .executeUpdate();
+                em.persist(times);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Deletes the {@link SavedTimes} of every chat for the days before {@code date}, with a single statement.
+     *
+     * @return the number of deleted {@link SavedTimes}
+     */
+    public int deleteSavedTimesBefore(LocalDate date) {
+        return inTransaction(em -> em.createQuery("DELETE FROM SavedTimes t WHERE t.date < :date")
+                .setParameter("date", date)
+                .executeUpdate());
+    }
+
+    // The following methods act on the BandInstalls
+
+    /**
+     * Gets when the notifiers of each longitude band have last been installed, by band. Bands whose notifiers have
+     * never been installed are missing.
+     */
+    public Map<Integer, Long> getBandsInstalledAt() {
         EntityManager em = createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
+        try {
+            return em.createQuery("SELECT b FROM BandInstall b", BandInstall.class)
+                    .getResultList()
+                    .stream()
+                    .collect(Collectors.toMap(BandInstall::getLongitudeBand, BandInstall::getInstalledAt));
+        } finally {
+            em.close();
+        }
+    }
 
-        transaction.begin();
-        SavedChat savedChat = getSavedChat(userAlert.getChatId());
-        boolean res = savedChat.editUserAlert(userAlert);
-        em.merge(savedChat);
-        em.flush();
-        transaction.commit();
-        em.close();
+    /**
+     * Records that the notifiers of some longitude bands have been installed at {@code installedAt}.
+     */
+    public void setBandsInstalledAt(Collection<Integer> longitudeBands, long installedAt) {
+        inTransaction(em -> {
+            for (int longitudeBand : longitudeBands) {
+                em.merge(new BandInstall(longitudeBand, installedAt));
+            }
+            return null;
+        });
+    }
+
+    // The following methods act on the PendingAlerts
 
-        return res;
+    /**
+     * Adds a {@link PendingAlert}. The {@link PendingAlert} is persisted asynchronously, unless an equal one, of the
+     * same chat and {@link UserAlert} and to be sent at the same time, is already there.
+     */
+    public void addPendingAlert(PendingAlert pendingAlert) {
+        unsavedPendingAlerts.compute(pendingAlert.getChatId(), (chatId, unsaved) -> {
+            List<PendingAlert> result = unsaved != null ? unsaved : new ArrayList<>();
+            synchronized (result) {
+                result.add(pendingAlert);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Gets the {@link PendingAlert}s to be sent from {@code fromFireTime} (included) to {@code toFireTime} (excluded),
+     * in order of time.
+     */
+    public List<PendingAlert> getPendingAlerts(long fromFireTime, long toFireTime) {
+        flushPendingAlerts();
+
+        EntityManager em = createEntityManager();
+        try {
+            return em.createQuery("SELECT a FROM PendingAlert a " +
+                    "WHERE a.fireTime >= :fromFireTime AND a.fireTime < :toFireTime ORDER BY a.fireTime",
+                    PendingAlert.class)
+                    .setParameter("fromFireTime", fromFireTime)
+                    .setParameter("toFireTime", toFireTime)
+                    .getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Gets when the last {@link PendingAlert} has been scheduled, or {@code null} if there are none.
+     */
+    public Long getLastPendingAlertScheduledAt() {
+        flushPendingAlerts();
+
+        EntityManager em = createEntityManager();
+        try {
+            return em.createQuery("SELECT MAX(a.scheduledAt) FROM PendingAlert a", Long.class).getSingleResult();
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Deletes the {@link PendingAlert}s of a chat.
+     */
+    public void deletePendingAlerts(long chatId) {
+        synchronized (writeLock) {
+            unsavedPendingAlerts.remove(chatId);
+            inTransaction(em -> em.createQuery("DELETE FROM PendingAlert a WHERE a.chatId = :chatId")
+                    .setParameter("chatId", chatId)
+                    .executeUpdate());
+        }
+    }
+
+    /**
+     * Deletes the {@link PendingAlert}s of a {@link UserAlert} of a chat.
+     */
+    public void deletePendingAlerts(long chatId, long alertId) {
+        synchronized (writeLock) {
+            List<PendingAlert> unsaved = unsavedPendingAlerts.get(chatId);
+            if (unsaved != null) {
+                synchronized (unsaved) {
+                    unsaved.removeIf(pendingAlert -> pendingAlert.getAlertId() == alertId);
+                }
+            }
+            inTransaction(em -> em.createQuery("DELETE FROM PendingAlert a " +
+                    "WHERE a.chatId = :chatId AND a.alertId = :alertId")
+                    .setParameter("chatId", chatId)
+                    .setParameter("alertId", alertId)
+                    .executeUpdate());
+        }
+    }
+
+    /**
+     * Deletes the {@link PendingAlert}s of every chat to be sent until {@code fireTime} (included), with a single
+     * statement.
+     *
+     * @return the number of deleted {@link PendingAlert}s
+     */
+    public int deletePendingAlertsUntil(long fireTime) {
+        synchronized (writeLock) {
+            unsavedPendingAlerts.values().forEach(unsaved -> {
+                synchronized (unsaved) {
+                    unsaved.removeIf(pendingAlert -> pendingAlert.getFireTime() <= fireTime);
+                }
+            });
+            return inTransaction(em -> em.createQuery("DELETE FROM PendingAlert a WHERE a.fireTime <= :fireTime")
+                    .setParameter("fireTime", fireTime)
+                    .executeUpdate());
+        }
+    }
+
+    private static class PendingAlertKey {
+        private final long chatId;
+        private final long alertId;
+        private final long fireTime;
+
+        private PendingAlertKey(long chatId, long alertId, long fireTime) {
+            this.chatId = chatId;
+            this.alertId = alertId;
+            this.fireTime = fireTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PendingAlertKey that = (PendingAlertKey) o;
+            return chatId == that.chatId && alertId == that.alertId && fireTime == that.fireTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(chatId, alertId, fireTime);
+        }
     }
 }
@@ -1,8 +1,10 @@
 package com.simpleplus.telegram.bots.components;
 
 
+import com.simpleplus.telegram.bots.components.sender.MessagePriority;
 import com.simpleplus.telegram.bots.datamodel.Step;
 import com.simpleplus.telegram.bots.datamodel.UserState;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import org.apache.http.HttpHost;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.logging.log4j.LogManager;
@@ -12,12 +14,9 @@ import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
 import org.telegram.telegrambots.meta.generics.BotSession;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 
 import static com.simpleplus.telegram.bots.datamodel.Step.*;
@@ -25,12 +24,16 @@ import static com.simpleplus.telegram.bots.datamodel.Step.*;
 public class SunriseSunsetBot extends TelegramLongPollingBot implements BotBean {
     private static final Logger LOG = LogManager.getLogger(SunriseSunsetBot.class);
     private Notifier notifier;
+    private BotScheduler scheduler;
     private BotSession botSession;
     private PersistenceManager persistenceManager;
     private MessageHandler messageHandler;
     private CommandHandler commandHandler;
     private PropertiesManager propertiesManager;
-    private Map<Long, Integer> exceptionCountMap = new HashMap<>();
+    private UpdateDispatcher updateDispatcher;
+    private OutboundSender outboundSender;
+    // Guarded by itself
+    private final Long2IntOpenHashMap exceptionCountMap = new Long2IntOpenHashMap();
 
     public static long getChatId(Update update) {
         if (update.hasMessage()) {
@@ -44,10 +47,13 @@ public class SunriseSunsetBot extends TelegramLongPollingBot implements BotBean
 
     public void init() {
         notifier = (Notifier) BotContext.getDefaultContext().getBean(Notifier.class);
+        scheduler = (BotScheduler) BotContext.getDefaultContext().getBean(BotScheduler.class);
         persistenceManager = (PersistenceManager) BotContext.getDefaultContext().getBean(PersistenceManager.class);
         messageHandler = (MessageHandler) BotContext.getDefaultContext().getBean(MessageHandler.class);
         commandHandler = (CommandHandler) BotContext.getDefaultContext().getBean(CommandHandler.class);
         propertiesManager = (PropertiesManager) BotContext.getDefaultContext().getBean(PropertiesManager.class);
+        updateDispatcher = (UpdateDispatcher) BotContext.getDefaultContext().getBean(UpdateDispatcher.class);
+        outboundSender = (OutboundSender) BotContext.getDefaultContext().getBean(OutboundSender.class);
 
         initProxy();
     }
@@ -73,13 +79,23 @@ public class SunriseSunsetBot extends TelegramLongPollingBot implements BotBean
 
     public void start() {
         LOG.info("Starting up...");
-        notifier.installAllNotifiers();
+        // The alerts scheduled before the restart are still valid, unless the daily installation has been missed:
+        // altogether, or for the longitude bands whose run fell while the bot was stopped
+        if (!scheduler.loadPendingAlerts()) {
+            notifier.installAllNotifiers();
+        } else {
+            notifier.installMissedBands();
+        }
         notifier.scheduleDailyAllNotifiersInstaller();
 
         // Add shutdown hook to gracefully close db connection
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             LOG.info("Shutting down...");
             botSession.stop();
+            updateDispatcher.shutDown();
+            scheduler.shutDown();
+            notifier.shutDown();
+            outboundSender.shutDown();
             persistenceManager.shutDown();
         }));
     }
@@ -95,6 +111,10 @@ public class SunriseSunsetBot extends TelegramLongPollingBot implements BotBean
             return;
         }
 
+        updateDispatcher.dispatch(getChatId(update), () -> handleUpdate(update));
+    }
+
+    private void handleUpdate(Update update) {
         logMessage(update);
 
         // If chat was expired, reactivate it
@@ -136,56 +156,60 @@ public class SunriseSunsetBot extends TelegramLongPollingBot implements BotBean
     }
 
     public void reply(long chatId, String message) {
+        reply(chatId, message, MessagePriority.INTERACTIVE);
+    }
+
+    public void reply(long chatId, String message, MessagePriority priority) {
         SendMessage messageToSend = SendMessage.builder()
                 .chatId(String.valueOf(chatId))
                 .text(message)
                 .build();
-        reply(messageToSend);
+        reply(messageToSend, Long.parseLong(messageToSend.getChatId()), messageToSend.getText(), priority);
     }
 
     public void reply(SendMessage messageToSend) {
-        reply(messageToSend, Long.parseLong(messageToSend.getChatId()), messageToSend.getText());
+        reply(messageToSend, Long.parseLong(messageToSend.getChatId()), messageToSend.getText(),
+                MessagePriority.INTERACTIVE);
     }
 
     public void reply(EditMessageText messageToSend) {
-        reply(messageToSend, Long.parseLong(messageToSend.getChatId()), messageToSend.getText());
+        reply(messageToSend, Long.parseLong(messageToSend.getChatId()), messageToSend.getText(),
+                MessagePriority.INTERACTIVE);
     }
 
-    private void reply(BotApiMethod messageToSend, long chatId, String text) {
-        try {
-            execute(messageToSend);
-            LOG.info("ChatId {}: Outgoing message: {}", chatId, text);
-        } catch (TelegramApiRequestException e) {
-            LOG.warn("ChatId {}: TelegramApiRequestException during reply. " + "Error was {} - {}", chatId,
-                    e.getErrorCode(), e.getApiResponse());
-
-            if (reachedMaxExceptionCount(chatId)) {
-                persistenceManager.setStep(chatId, Step.EXPIRED);
-                LOG.warn("ChatId {}: Reached maximum number of exceptions. Chat flagged as expired.", chatId);
-            } else {
-                incrementExceptionCount(chatId);
-            }
-        } catch (TelegramApiException e) {
-            LOG.warn("ChatId " + chatId + ": TelegramApiException during reply. Chat NOT flagged as expired.", e);
+    private void reply(BotApiMethod<?> messageToSend, long chatId, String text, MessagePriority priority) {
+        outboundSender.send(messageToSend, chatId, text, priority);
+    }
+
+    /**
+     * Called by the {@link OutboundSender} when Telegram refuses a message: after {@code max-exceptions-for-chat}
+     * refusals the chat is flagged as expired.
+     */
+    void onReplyFailed(long chatId, TelegramApiRequestException e) {
+        LOG.warn("ChatId {}: TelegramApiRequestException during reply. " + "Error was {} - {}", chatId,
+                e.getErrorCode(), e.getApiResponse());
+
+        if (reachedMaxExceptionCount(chatId)) {
+            persistenceManager.setStep(chatId, Step.EXPIRED);
+            LOG.warn("ChatId {}: Reached maximum number of exceptions. Chat flagged as expired.", chatId);
+        } else {
+            incrementExceptionCount(chatId);
         }
     }
 
     private void incrementExceptionCount(long chatId) {
-        Integer exceptionCount = exceptionCountMap.get(chatId);
-        if (exceptionCount == null) {
-            exceptionCount = 0;
+        int exceptionCount;
+        synchronized (exceptionCountMap) {
+            exceptionCount = exceptionCountMap.addTo(chatId, 1) + 1;
         }
-        exceptionCount++;
-
-        exceptionCountMap.put(chatId, exceptionCount);
         LOG.info("ChatId {}: Incremented exception count to {}.", chatId, exceptionCount);
     }
 
     private boolean reachedMaxExceptionCount(long chatId) {
         Integer maxExceptions = Integer.valueOf(propertiesManager.getPropertyOrDefault("max-exceptions-for-chat", "3"));
-        Integer exceptionCount = exceptionCountMap.get(chatId);
-
-        return exceptionCount != null && exceptionCount >= maxExceptions;
+        synchronized (exceptionCountMap) {
+            return exceptionCountMap.get(chatId) >= maxExceptions;
+        }
     }
 
     public void replyAndLogError(long chatId, String message, Throwable e) {
@@ -0,0 +1,88 @@
+package com.simpleplus.telegram.bots.components;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands incoming updates to a pool of workers, so that a slow chat does not hold up the others.
+ * <p>
+ * There are {@code update-dispatcher-threads} workers, each one with its own queue, and all the updates of a chat go
+ * to the same worker: updates of the same chat are therefore handled one at a time and in the order they arrived,
+ * while updates of different chats are handled in parallel.
+ */
+public class UpdateDispatcher implements BotBean {
+    private static final Logger LOG = LogManager.getLogger(UpdateDispatcher.class);
+
+    private ThreadPoolExecutor[] workers;
+    private int queueDepthWarning;
+    private final UpdateStatistics statistics = new UpdateStatistics();
+
+    @Override
+    public void init() {
+        PropertiesManager propertiesManager =
+                (PropertiesManager) BotContext.getDefaultContext().getBean(PropertiesManager.class);
+        int threads = Integer.parseInt(propertiesManager.getPropertyOrDefault("update-dispatcher-threads", "8"));
+        this.queueDepthWarning =
+                Integer.parseInt(propertiesManager.getPropertyOrDefault("update-dispatcher-queue-warning", "100"));
+
+        this.workers = new ThreadPoolExecutor[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("update-worker-" + i)
+                            .setDaemon(true)
+                            .build());
+        }
+    }
+
+    public void shutDown() {
+        for (ThreadPoolExecutor worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * Queues the handling of an update of the given chat.
+     */
+    public void dispatch(long chatId, Runnable handler) {
+        ThreadPoolExecutor worker = workers[Math.floorMod(Long.hashCode(chatId), workers.length)];
+        long dispatchedAt = System.currentTimeMillis();
+
+        statistics.recordDispatched();
+        worker.execute(() -> {
+            long startedAt = System.currentTimeMillis();
+            try {
+                handler.run();
+            } catch (RuntimeException e) {
+                LOG.error("ChatId {}: Unhandled exception while handling update.", chatId, e);
+            } finally {
+                statistics.recordHandled(startedAt - dispatchedAt, System.currentTimeMillis() - startedAt);
+            }
+        });
+
+        int queueDepth = worker.getQueue().size();
+        if (queueDepth >= queueDepthWarning) {
+            LOG.warn("ChatId {}: {} updates are waiting for the same worker.", chatId, queueDepth);
+        }
+    }
+
+    /**
+     * Gets the number of updates waiting to be handled.
+     */
+    public int getQueueDepth() {
+        int queueDepth = 0;
+        for (ThreadPoolExecutor worker : workers) {
+            queueDepth += worker.getQueue().size();
+        }
+        return queueDepth;
+    }
+
+    public UpdateStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -0,0 +1,66 @@
+package com.simpleplus.telegram.bots.components;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters about the updates handled by the {@link UpdateDispatcher}. The queue time is the time an update waited
+ * for its worker, the handling time is the time the worker spent on it.
+ */
+public class UpdateStatistics {
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong handled = new AtomicLong();
+    private final AtomicLong totalQueueMillis = new AtomicLong();
+    private final AtomicLong maxQueueMillis = new AtomicLong();
+    private final AtomicLong totalHandlingMillis = new AtomicLong();
+    private final AtomicLong maxHandlingMillis = new AtomicLong();
+
+    public void recordDispatched() {
+        dispatched.incrementAndGet();
+    }
+
+    public void recordHandled(long queueMillis, long handlingMillis) {
+        handled.incrementAndGet();
+        totalQueueMillis.addAndGet(queueMillis);
+        maxQueueMillis.accumulateAndGet(queueMillis, Math::max);
+        totalHandlingMillis.addAndGet(handlingMillis);
+        maxHandlingMillis.accumulateAndGet(handlingMillis, Math::max);
+    }
+
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    public long getHandled() {
+        return handled.get();
+    }
+
+    public long getAverageQueueMillis() {
+        long count = handled.get();
+        return count != 0 ? totalQueueMillis.get() / count : 0;
+    }
+
+    public long getMaxQueueMillis() {
+        return maxQueueMillis.get();
+    }
+
+    public long getAverageHandlingMillis() {
+        long count = handled.get();
+        return count != 0 ? totalHandlingMillis.get() / count : 0;
+    }
+
+    public long getMaxHandlingMillis() {
+        return maxHandlingMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateStatistics{" +
+                "dispatched=" + getDispatched() +
+                ", handled=" + getHandled() +
+                ", averageQueueMillis=" + getAverageQueueMillis() +
+                ", maxQueueMillis=" + getMaxQueueMillis() +
+                ", averageHandlingMillis=" + getAverageHandlingMillis() +
+                ", maxHandlingMillis=" + getMaxHandlingMillis() +
+                '}';
+    }
+}
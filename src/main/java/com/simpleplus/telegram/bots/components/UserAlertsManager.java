@@ -3,7 +3,6 @@ package com.simpleplus.telegram.bots.components;
 import com.google.common.collect.ImmutableMap;
 import com.simpleplus.telegram.bots.datamodel.TimeType;
 import com.simpleplus.telegram.bots.datamodel.UserAlert;
-import com.simpleplus.telegram.bots.exceptions.ServiceException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -251,19 +250,24 @@ public class UserAlertsManager implements BotBean {
 
     private void handleEdit(long chatId, CommandParameters parameters) {
         if (parameters.alertId != 0) {
-            LOG.info("ChatId {}: Going to edit alert {} and reschedule all alerts.", chatId, parameters.alertId);
+            LOG.info("ChatId {}: Going to edit alert {} and reschedule it.", chatId, parameters.alertId);
             UserAlert editedUserAlert = createEditedUserAlert(chatId, parameters);
             if (editedUserAlert != null) {
                 boolean edited = persistenceManager.editUserAlert(editedUserAlert);
+                // When not edited, the alert may have been removed because equal to another one
+                scheduler.cancelScheduledMessages(chatId, editedUserAlert.getId());
                 if (!edited) {
                     replyWithEditMessage(chatId, parameters, "Alert already exists.");
                     return;
                 }
 
-                reinstallNotifiers(chatId, parameters, "Alert has been created.",
-                        "Your alert has been saved, however we are encountering some " +
-                                "technical difficulties and it may not be fired for today.",
-                        "ServiceException while trying to install notifiers on just edited alert.");
+                if (notifier.tryToInstallNotifier(editedUserAlert, 5)) {
+                    replyWithEditMessage(chatId, parameters, "Alert has been created.");
+                } else {
+                    bot.reply(chatId, "Your alert has been saved, however we are encountering some " +
+                            "technical difficulties and it may not be fired for today.");
+                    LOG.error("ChatId {}: Cannot install notifier on just edited alert.", chatId);
+                }
             } else {
                 bot.reply(chatId, "An error occurred. For further information, please contact support.");
             }
@@ -272,22 +276,19 @@ public class UserAlertsManager implements BotBean {
 
     private void handleAdd(long chatId, CommandParameters parameters) {
         if (parameters.hasAlertType()) {
-            boolean added = addAppropriatedUserAlert(chatId, parameters);
+            UserAlert userAlert = new UserAlert(chatId, getAppropriatedTimeType(parameters), parameters.delay);
+            boolean added = addAppropriatedUserAlert(userAlert);
             if (!added && parameters.delay != DRAFT_DELAY /* Threat draft alerts separately */) {
                 replyWithEditMessage(chatId, parameters, "Alert already exists.");
                 return;
             }
 
-            try {
-                if (parameters.delay != DRAFT_DELAY) {
-                    notifier.tryToInstallNotifiers(chatId, 5);
-                } else {
-                    sendDelays(chatId, parameters);
-                }
-            } catch (ServiceException e) {
+            if (parameters.delay == DRAFT_DELAY) {
+                sendDelays(chatId, parameters);
+            } else if (userAlert.getTimeType() != DEFAULT && !notifier.tryToInstallNotifier(userAlert, 5)) {
                 bot.reply(chatId, "Your alert has been added, however we are encountering some " +
                         "technical difficulties and it may not be fired for today.");
-                LOG.error("ServiceException while trying to install notifier on just created alert.", e);
+                LOG.error("ChatId {}: Cannot install notifier on just created alert.", chatId);
             }
         } else {
             sendAlertsTypes(chatId, parameters);
@@ -296,33 +297,22 @@ public class UserAlertsManager implements BotBean {
 
     private void handleRemove(long chatId, CommandParameters parameters) {
         if (parameters.alertId != 0) {
-            LOG.info("ChatId {}: Going to remove alert {} and reschedule all alerts.", chatId, parameters.alertId);
+            LOG.info("ChatId {}: Going to remove alert {} and cancel its messages.", chatId, parameters.alertId);
             persistenceManager.deleteUserAlert(chatId, parameters.alertId);
-
-            reinstallNotifiers(chatId, parameters, "Alert has been deleted.",
-                    "Your alert has been deleted, however we are encountering some " +
-                            "technical difficulties and it may still be fired for today.",
-                    "ServiceException while trying to install notifiers on just deleted alert.");
+            scheduler.cancelScheduledMessages(chatId, parameters.alertId);
+            replyWithEditMessage(chatId, parameters, "Alert has been deleted.");
+
+            // A chat left without alerts gets the default ones straight away, as it would the following night
+            if (persistenceManager.getUserAlerts(chatId).isEmpty() && !notifier.tryToInstallNotifiers(chatId, 5)) {
+                bot.reply(chatId, "Your alert has been deleted, however we are encountering some " +
+                        "technical difficulties and the default alerts may not be fired for today.");
+                LOG.error("ChatId {}: Cannot install default notifiers after deleting the last alert.", chatId);
+            }
         } else {
             sendAlertsDeletionList(chatId, parameters);
         }
     }
 
-    private void reinstallNotifiers(long chatId,
-                                    CommandParameters parameters,
-                                    String correctFeedbackMessage,
-                                    String errorFeedbackMessage,
-                                    String logMessage) {
-        try {
-            scheduler.cancelAllScheduledMessages(chatId);
-            notifier.tryToInstallNotifiers(chatId, 5);
-            replyWithEditMessage(chatId, parameters, null, correctFeedbackMessage);
-        } catch (Exception e) {
-            bot.reply(chatId, errorFeedbackMessage);
-            LOG.error(logMessage, e);
-        }
-    }
-
     private UserAlert createEditedUserAlert(long chatId, CommandParameters parameters) {
         for (UserAlert alert : persistenceManager.getUserAlerts(chatId)) {
             if (alert.getId() == parameters.alertId) {
@@ -393,11 +383,9 @@ public class UserAlertsManager implements BotBean {
         replyWithEditMessage(chatId, parameters, null, text);
     }
 
-    private boolean addAppropriatedUserAlert(long chatId, CommandParameters parameters) {
-        TimeType timeType = getAppropriatedTimeType(parameters);
-
-        if (timeType != TimeType.DEFAULT) {
-            return persistenceManager.addUserAlert(new UserAlert(chatId, timeType, parameters.delay));
+    private boolean addAppropriatedUserAlert(UserAlert userAlert) {
+        if (userAlert.getTimeType() != TimeType.DEFAULT) {
+            return persistenceManager.addUserAlert(userAlert);
         }
 
         return true;
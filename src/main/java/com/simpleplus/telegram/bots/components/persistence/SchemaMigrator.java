@@ -0,0 +1,146 @@
+package com.simpleplus.telegram.bots.components.persistence;
+
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Applies to the database the schema changes that {@code hbm2ddl.auto=update} does not make, such as indexes and
+ * the backfill of new columns.
+ * <p>
+ * Migrations are numbered: the last one applied is recorded in the {@code SCHEMA_VERSION} table, and only the
+ * following ones are applied. Every statement is idempotent, so a migration interrupted half-way can be run again.
+ */
+public class SchemaMigrator {
+    private static final Logger LOG = LogManager.getLogger(SchemaMigrator.class);
+
+    // Same as Coordinates.toCell()
+    private static final String COORDINATE_CELL_SQL =
+            "FLOOR((latitude + 90) * " + Coordinates.CELLS_PER_DEGREE + ") * " + Coordinates.CELLS_PER_ROW + " + " +
+                    "FLOOR((longitude + 180) * " + Coordinates.CELLS_PER_DEGREE + ")";
+
+    // Same as Coordinates.toLongitudeBand()
+    private static final String LONGITUDE_BAND_SQL =
+            "MOD(CAST(FLOOR((longitude + 7.5) / 15) AS INT) + " + Coordinates.LONGITUDE_BANDS + ", " +
+                    Coordinates.LONGITUDE_BANDS + ")";
+
+    private static final List<Migration> MIGRATIONS = Arrays.asList(
+            // There is no index on step alone: most chats are running, and H2 would use it for the pages of running
+            // chats, sorting them instead of reading them in primary key order (see SchemaIndexBenchmark)
+            new Migration(1, "Index alerts by chat and chats by administrator flag",
+                    "CREATE INDEX IF NOT EXISTS IDX_USERALERT_CHAT_ID ON UserAlert(CHAT_ID)",
+                    "CREATE INDEX IF NOT EXISTS IDX_SAVEDCHAT_ISADMIN ON SavedChat(isAdmin, step)",
+                    "ANALYZE"),
+            new Migration(2, "Add and index the coordinate cell of chats",
+                    "ALTER TABLE SavedChat ADD COLUMN IF NOT EXISTS COORDINATE_CELL BIGINT",
+                    "UPDATE SavedChat SET COORDINATE_CELL = " + COORDINATE_CELL_SQL + " WHERE COORDINATE_CELL IS NULL",
+                    "CREATE INDEX IF NOT EXISTS IDX_SAVEDCHAT_COORDINATE_CELL ON SavedChat(COORDINATE_CELL)",
+                    "ANALYZE"),
+            new Migration(3, "Index saved times by chat and date",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS IDX_SAVEDTIMES_CHAT_ID_DATE ON SavedTimes(CHAT_ID, TIMES_DATE)",
+                    "ANALYZE"),
+            new Migration(4, "Index pending alerts by fire time and by chat",
+                    "CREATE INDEX IF NOT EXISTS IDX_PENDINGALERT_FIRE_TIME ON PendingAlert(FIRE_TIME)",
+                    "CREATE INDEX IF NOT EXISTS IDX_PENDINGALERT_CHAT_ID ON PendingAlert(CHAT_ID)",
+                    "ANALYZE"),
+            // Messages outside the window of the scheduler are looked up by chat and time
+            new Migration(5, "Index pending alerts by chat and fire time",
+                    "DROP INDEX IF EXISTS IDX_PENDINGALERT_CHAT_ID",
+                    "CREATE INDEX IF NOT EXISTS IDX_PENDINGALERT_CHAT_ID_FIRE_TIME ON PendingAlert(CHAT_ID, FIRE_TIME)",
+                    "ANALYZE"),
+            // The pages of the chats of a band are read in primary key order from the index, without sorting
+            new Migration(6, "Add and index the longitude band of chats",
+                    "ALTER TABLE SavedChat ADD COLUMN IF NOT EXISTS LONGITUDE_BAND INT",
+                    "UPDATE SavedChat SET LONGITUDE_BAND = " + LONGITUDE_BAND_SQL + " WHERE LONGITUDE_BAND IS NULL",
+                    "CREATE INDEX IF NOT EXISTS IDX_SAVEDCHAT_LONGITUDE_BAND ON SavedChat(LONGITUDE_BAND, CHAT_ID)",
+                    "ANALYZE"),
+            // The same message of an alert is never pending twice; the index also serves the lookups by chat
+            new Migration(7, "Make pending alerts unique by chat, alert and fire time",
+                    "DELETE FROM PendingAlert a WHERE EXISTS (SELECT 1 FROM PendingAlert b " +
+                            "WHERE b.CHAT_ID = a.CHAT_ID AND b.ALERT_ID = a.ALERT_ID AND b.FIRE_TIME = a.FIRE_TIME " +
+                            "AND b.id < a.id)",
+                    "DROP INDEX IF EXISTS IDX_PENDINGALERT_CHAT_ID_FIRE_TIME",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS IDX_PENDINGALERT_CHAT_ID_ALERT_ID_FIRE_TIME " +
+                            "ON PendingAlert(CHAT_ID, ALERT_ID, FIRE_TIME)",
+                    "ANALYZE")
+    );
+
+    /**
+     * Applies the migrations which have not been applied yet. The tables of the entities must already exist.
+     *
+     * @return the schema version after the migration.
+     */
+    public int migrate(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS SCHEMA_VERSION (" +
+                    "VERSION INT PRIMARY KEY, " +
+                    "DESCRIPTION VARCHAR(255), " +
+                    "APPLIED_AT TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+        }
+
+        int version = getVersion(connection);
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version > version) {
+                apply(connection, migration);
+                version = migration.version;
+            }
+        }
+
+        return version;
+    }
+
+    public static int getLatestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    private int getVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT MAX(VERSION) FROM SCHEMA_VERSION")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        LOG.info("Applying schema migration {}: {}.", migration.version, migration.description);
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+
+        try (Statement statement = connection.createStatement();
+             PreparedStatement insertVersion = connection.prepareStatement(
+                     "INSERT INTO SCHEMA_VERSION (VERSION, DESCRIPTION) VALUES (?, ?)")) {
+            for (String sql : migration.statements) {
+                statement.execute(sql);
+            }
+            insertVersion.setInt(1, migration.version);
+            insertVersion.setString(2, migration.description);
+            insertVersion.executeUpdate();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String[] statements;
+
+        private Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.simpleplus.telegram.bots.components.retry;
+
+import com.simpleplus.telegram.bots.exceptions.ServiceException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks which may fail with a {@link ServiceException}, retrying them with exponential backoff and jitter.
+ * <p>
+ * The n-th retry is made after a delay drawn uniformly between half and the whole of
+ * {@code min(initialDelay * 2^(n-1), maxDelay)}, so that tasks failing together do not retry together. No thread is
+ * held while waiting: retries are submitted to the executor only when their delay has elapsed.
+ */
+public class RetryScheduler {
+    private static final Logger LOG = LogManager.getLogger(RetryScheduler.class);
+
+    private final Executor executor;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryScheduler(Executor executor, long initialDelayMillis, long maxDelayMillis) {
+        this.executor = executor;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Runs a task on the executor, making up to {@code maxAttempts} attempts.
+     *
+     * @return a future completed when an attempt succeeds, or completed exceptionally with the last exception when
+     * all the attempts fail or an attempt fails with an exception other than {@link ServiceException}.
+     */
+    public CompletableFuture<Void> submit(String description, RetryableTask task, int maxAttempts) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        schedule(description, task, 0, maxAttempts, result);
+        return result;
+    }
+
+    /**
+     * Retries a task whose first attempt has already failed, making up to {@code maxAttempts} attempts in total
+     * (including the failed one).
+     *
+     * @see #submit(String, RetryableTask, int)
+     */
+    public CompletableFuture<Void> retry(String description, RetryableTask task, int maxAttempts) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (maxAttempts > 1) {
+            schedule(description, task, 1, maxAttempts, result);
+        } else {
+            result.completeExceptionally(new ServiceException(description + ": no attempts left."));
+        }
+        return result;
+    }
+
+    long getDelayMillis(int attempt) {
+        if (attempt == 0) {
+            return 0;
+        }
+
+        long delay = initialDelayMillis << Math.min(attempt - 1, 30);
+        if (delay < 0 || delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private void schedule(String description,
+                          RetryableTask task,
+                          int attempt,
+                          int maxAttempts,
+                          CompletableFuture<Void> result) {
+        long delay = getDelayMillis(attempt);
+        Executor attemptExecutor = delay == 0 ?
+                executor : CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor);
+
+        try {
+            attemptExecutor.execute(() -> runAttempt(description, task, attempt, maxAttempts, result));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void runAttempt(String description,
+                            RetryableTask task,
+                            int attempt,
+                            int maxAttempts,
+                            CompletableFuture<Void> result) {
+        try {
+            task.run(attempt);
+            result.complete(null);
+        } catch (ServiceException e) {
+            if (attempt + 1 >= maxAttempts) {
+                LOG.warn("{}: attempt {} of {} failed, giving up.", description, attempt + 1, maxAttempts);
+                result.completeExceptionally(e);
+            } else {
+                LOG.warn("{}: attempt {} of {} failed, retrying.", description, attempt + 1, maxAttempts, e);
+                schedule(description, task, attempt + 1, maxAttempts, result);
+            }
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * A task which can be retried.
+     */
+    @FunctionalInterface
+    public interface RetryableTask {
+        /**
+         * @param attempt the attempt number, starting from 0.
+         */
+        void run(int attempt) throws Exception;
+    }
+}
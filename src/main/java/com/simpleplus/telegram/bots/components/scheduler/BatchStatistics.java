@@ -0,0 +1,55 @@
+package com.simpleplus.telegram.bots.components.scheduler;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters about the dispatched {@link MessageBatch}es. The dispatch lag is the time between the time a batch was
+ * scheduled for and the time its messages were handed to the sender.
+ */
+public class BatchStatistics {
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLong totalLagMillis = new AtomicLong();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+
+    public void record(int batchSize, long lagMillis) {
+        batches.incrementAndGet();
+        messages.addAndGet(batchSize);
+        maxBatchSize.accumulateAndGet(batchSize, Math::max);
+        totalLagMillis.addAndGet(lagMillis);
+        maxLagMillis.accumulateAndGet(lagMillis, Math::max);
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    public long getAverageLagMillis() {
+        long count = batches.get();
+        return count != 0 ? totalLagMillis.get() / count : 0;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BatchStatistics{" +
+                "batches=" + getBatches() +
+                ", messages=" + getMessages() +
+                ", maxBatchSize=" + getMaxBatchSize() +
+                ", averageLagMillis=" + getAverageLagMillis() +
+                ", maxLagMillis=" + getMaxLagMillis() +
+                '}';
+    }
+}
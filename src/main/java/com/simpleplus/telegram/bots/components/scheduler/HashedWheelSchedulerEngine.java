@@ -0,0 +1,254 @@
+package com.simpleplus.telegram.bots.components.scheduler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link SchedulerEngine} backed by a hashed timing wheel. The wheel is made of {@code wheelSize} buckets, each one
+ * covering {@code tickMillis} milliseconds of wall-clock time: scheduling and cancelling a task are O(1) operations,
+ * regardless of the number of pending tasks. Tasks farther than one full turn of the wheel simply stay in their
+ * bucket until the right turn comes.
+ * <p>
+ * A single worker thread advances the wheel once per tick and hands the expired tasks to a dispatch pool, so that a
+ * slow task never delays the timekeeping of the others. A task is run at the first tick boundary not before its time,
+ * i.e. it may be up to one tick late.
+ */
+public class HashedWheelSchedulerEngine implements SchedulerEngine {
+    private static final Logger LOG = LogManager.getLogger(HashedWheelSchedulerEngine.class);
+
+    private final long tickMillis;
+    private final Bucket[] wheel;
+    private final ExecutorService dispatchPool;
+    private final Thread worker;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile boolean shutDown = false;
+
+    // The last tick whose bucket has been expired. It's only written while holding the lock of that bucket.
+    private volatile long processedTick;
+
+    public HashedWheelSchedulerEngine(long tickMillis, int wheelSize, int dispatchThreads) {
+        if (tickMillis <= 0 || wheelSize <= 0 || dispatchThreads <= 0) {
+            throw new IllegalArgumentException("tickMillis, wheelSize and dispatchThreads must be positive.");
+        }
+
+        this.tickMillis = tickMillis;
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new Bucket();
+        }
+
+        this.dispatchPool = Executors.newFixedThreadPool(dispatchThreads, new ThreadFactoryBuilder()
+                .setNameFormat("scheduler-dispatch-%d")
+                .setDaemon(true)
+                .build());
+        this.worker = new Thread(this::runWorker, "scheduler-wheel");
+        this.processedTick = Math.floorDiv(System.currentTimeMillis(), tickMillis) - 1;
+    }
+
+    @Override
+    public ScheduledTask schedule(Runnable task, Date time) {
+        return insert(new Entry(task, time.getTime(), 0));
+    }
+
+    @Override
+    public ScheduledTask scheduleAtFixedRate(Runnable task, Date firstTime, long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive.");
+        }
+
+        return insert(new Entry(task, firstTime.getTime(), period));
+    }
+
+    @Override
+    public void shutDown() {
+        shutDown = true;
+        worker.interrupt();
+        dispatchPool.shutdown();
+    }
+
+    private Entry insert(Entry entry) {
+        if (shutDown) {
+            throw new IllegalStateException("Scheduler engine already shut down.");
+        }
+
+        if (started.compareAndSet(false, true)) {
+            worker.start();
+        }
+
+        // Tick n is processed at its end, i.e. at (n + 1) * tickMillis
+        long deadlineTick = Math.floorDiv(entry.deadline - 1, tickMillis);
+        while (true) {
+            // A task whose tick has already been processed goes in the next one
+            long tick = Math.max(deadlineTick, processedTick + 1);
+            Bucket bucket = bucketOf(tick);
+            synchronized (bucket) {
+                if (tick > processedTick) {
+                    entry.deadlineTick = tick;
+                    bucket.add(entry);
+                    return entry;
+                }
+            }
+        }
+    }
+
+    private Bucket bucketOf(long tick) {
+        return wheel[(int) Math.floorMod(tick, (long) wheel.length)];
+    }
+
+    private void runWorker() {
+        LOG.info("Timing wheel started ({} buckets of {} ms).", wheel.length, tickMillis);
+
+        while (!shutDown) {
+            long tick = processedTick + 1;
+            long sleepMillis = (tick + 1) * tickMillis - System.currentTimeMillis();
+
+            if (sleepMillis > 0) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    if (shutDown) {
+                        break;
+                    }
+                }
+                continue;
+            }
+
+            expire(tick);
+        }
+
+        LOG.info("Timing wheel stopped.");
+    }
+
+    private void expire(long tick) {
+        Bucket bucket = bucketOf(tick);
+        List<Entry> expired = new ArrayList<>();
+
+        synchronized (bucket) {
+            processedTick = tick;
+            Entry entry = bucket.head;
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.deadlineTick <= tick) {
+                    bucket.remove(entry);
+                    expired.add(entry);
+                }
+                entry = next;
+            }
+        }
+
+        for (Entry entry : expired) {
+            dispatch(entry);
+        }
+    }
+
+    private void dispatch(Entry entry) {
+        if (entry.cancelled) {
+            return;
+        }
+
+        if (entry.period > 0) {
+            entry.deadline += entry.period;
+            insert(entry);
+        }
+
+        try {
+            dispatchPool.execute(() -> {
+                if (!entry.cancelled) {
+                    entry.task.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.error("Task {} rejected by the dispatch pool.", entry.task);
+        }
+    }
+
+    private static class Bucket {
+        private Entry head;
+        private Entry tail;
+
+        private void add(Entry entry) {
+            entry.bucket = this;
+            entry.prev = tail;
+            entry.next = null;
+            if (tail != null) {
+                tail.next = entry;
+            } else {
+                head = entry;
+            }
+            tail = entry;
+        }
+
+        private void remove(Entry entry) {
+            if (entry.prev != null) {
+                entry.prev.next = entry.next;
+            } else {
+                head = entry.next;
+            }
+            if (entry.next != null) {
+                entry.next.prev = entry.prev;
+            } else {
+                tail = entry.prev;
+            }
+            entry.prev = null;
+            entry.next = null;
+            entry.bucket = null;
+        }
+    }
+
+    private static class Entry implements ScheduledTask {
+        private final Runnable task;
+        private final long period;
+        private long deadline;
+        private long deadlineTick;
+        private volatile Bucket bucket;
+        private Entry prev;
+        private Entry next;
+        private volatile boolean cancelled = false;
+
+        private Entry(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+
+            // Unlink from the wheel, so that cancelled tasks do not take up memory until their deadline
+            Bucket currentBucket;
+            while ((currentBucket = bucket) != null) {
+                synchronized (currentBucket) {
+                    if (bucket == currentBucket) {
+                        currentBucket.remove(this);
+                        break;
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.simpleplus.telegram.bots.components.scheduler;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A group of messages due at the same time. A batch is scheduled as a single task and, once it has been closed for
+ * dispatching, it does not accept any more messages.
+ *
+ * @param <M> the type of the messages.
+ */
+public class MessageBatch<M> {
+    private final Date time;
+    private final Set<M> messages = new HashSet<>();
+    private boolean closed = false;
+    private ScheduledTask task;
+
+    public MessageBatch(Date time) {
+        this.time = time;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    /**
+     * Adds a message to the batch.
+     *
+     * @return {@code false} if the batch has already been closed, {@code true} otherwise.
+     */
+    public synchronized boolean add(M message) {
+        if (closed) {
+            return false;
+        }
+
+        messages.add(message);
+        return true;
+    }
+
+    /**
+     * Removes a message from the batch. If the batch is left empty, it gets closed.
+     *
+     * @return {@code true} if the batch has been closed because it was left empty, {@code false} otherwise.
+     */
+    public synchronized boolean remove(M message) {
+        messages.remove(message);
+        if (!closed && messages.isEmpty()) {
+            closed = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Closes the batch.
+     *
+     * @return the messages to be dispatched.
+     */
+    public synchronized List<M> close() {
+        closed = true;
+        return new ArrayList<>(messages);
+    }
+
+    public synchronized int size() {
+        return messages.size();
+    }
+
+    public ScheduledTask getTask() {
+        return task;
+    }
+
+    public void setTask(ScheduledTask task) {
+        this.task = task;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageBatch{" +
+                "time=" + time +
+                ", size=" + size() +
+                '}';
+    }
+}
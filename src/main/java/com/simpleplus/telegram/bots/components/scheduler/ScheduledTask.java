@@ -0,0 +1,15 @@
+package com.simpleplus.telegram.bots.components.scheduler;
+
+/**
+ * A handle to a task scheduled in a {@link SchedulerEngine}.
+ */
+public interface ScheduledTask {
+    /**
+     * Cancels the task. If the task is already running, it will be let complete.
+     *
+     * @return {@code false} if the task was already cancelled, {@code true} otherwise.
+     */
+    boolean cancel();
+
+    boolean isCancelled();
+}
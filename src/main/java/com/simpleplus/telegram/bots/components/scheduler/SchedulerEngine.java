@@ -0,0 +1,28 @@
+package com.simpleplus.telegram.bots.components.scheduler;
+
+import java.util.Date;
+
+/**
+ * The timekeeping engine used by {@link com.simpleplus.telegram.bots.components.BotScheduler}. An engine is only
+ * responsible for running tasks at the right time: what the tasks do is up to the caller.
+ */
+public interface SchedulerEngine {
+    /**
+     * Schedules {@code task} to be run once at {@code time}.
+     *
+     * @return a {@link ScheduledTask} which can be used to cancel the task.
+     */
+    ScheduledTask schedule(Runnable task, Date time);
+
+    /**
+     * Schedules {@code task} to be run at {@code firstTime} and then every {@code period} milliseconds.
+     *
+     * @return a {@link ScheduledTask} which can be used to cancel the task.
+     */
+    ScheduledTask scheduleAtFixedRate(Runnable task, Date firstTime, long period);
+
+    /**
+     * Stops the engine. Pending tasks will not be run.
+     */
+    void shutDown();
+}
@@ -0,0 +1,68 @@
+package com.simpleplus.telegram.bots.components.scheduler;
+
+import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A {@link SchedulerEngine} backed by a single {@link Timer}. Every task is run on the timer thread, so a slow task
+ * delays all the others: it is kept for small deployments and as a fallback. Cancelled tasks are left in the timer
+ * queue until their execution time comes.
+ */
+public class TimerSchedulerEngine implements SchedulerEngine {
+    private final Timer timer = new Timer("scheduler-timer");
+
+    @Override
+    public ScheduledTask schedule(Runnable task, Date time) {
+        TimerTaskAdapter timerTask = new TimerTaskAdapter(task);
+        timer.schedule(timerTask, time);
+        return timerTask;
+    }
+
+    @Override
+    public ScheduledTask scheduleAtFixedRate(Runnable task, Date firstTime, long period) {
+        TimerTaskAdapter timerTask = new TimerTaskAdapter(task);
+        timer.scheduleAtFixedRate(timerTask, firstTime, period);
+        return timerTask;
+    }
+
+    @Override
+    public void shutDown() {
+        timer.cancel();
+    }
+
+    private class TimerTaskAdapter extends TimerTask implements ScheduledTask {
+        private final Runnable task;
+        private volatile boolean cancelled;
+
+        private TimerTaskAdapter(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public boolean cancel() {
+            if (cancelled) {
+                return false;
+            }
+
+            cancelled = true;
+            super.cancel();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+}
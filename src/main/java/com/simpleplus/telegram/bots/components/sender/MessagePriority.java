@@ -0,0 +1,19 @@
+package com.simpleplus.telegram.bots.components.sender;
+
+/**
+ * Priority of an outgoing message: when the rate limits are reached, messages are sent in this order.
+ */
+public enum MessagePriority {
+    /**
+     * Replies to the user's messages and commands.
+     */
+    INTERACTIVE,
+    /**
+     * Scheduled sunrise/sunset alerts.
+     */
+    ALERT,
+    /**
+     * Broadcasts from the administrators.
+     */
+    BROADCAST
+}
@@ -0,0 +1,56 @@
+package com.simpleplus.telegram.bots.components.sender;
+
+/**
+ * A token bucket: it holds up to {@code capacity} tokens and gains {@code tokensPerSecond} tokens per second. Every
+ * message consumes a token, so that at most {@code capacity} messages are sent in a burst and then at most
+ * {@code tokensPerSecond} messages per second.
+ * <p>
+ * A bucket can also be paused (e.g. when Telegram answers "429 Too Many Requests"): while paused it gives no tokens.
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double tokensPerMilli;
+
+    private double tokens;
+    private long lastRefillMillis;
+    private long pausedUntilMillis;
+
+    public TokenBucket(double capacity, double tokensPerSecond, long nowMillis) {
+        this.capacity = capacity;
+        this.tokensPerMilli = tokensPerSecond / 1000;
+        this.tokens = capacity;
+        this.lastRefillMillis = nowMillis;
+    }
+
+    /**
+     * Gets the time to wait before a token is available.
+     *
+     * @return 0 if a token is available now, otherwise the number of milliseconds to wait.
+     */
+    public synchronized long getWaitMillis(long nowMillis) {
+        refill(nowMillis);
+
+        long pauseWait = pausedUntilMillis - nowMillis;
+        long tokenWait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerMilli);
+        return Math.max(0, Math.max(pauseWait, tokenWait));
+    }
+
+    /**
+     * Takes a token: it should be called only when {@link #getWaitMillis(long)} returns 0.
+     */
+    public synchronized void consume(long nowMillis) {
+        refill(nowMillis);
+        tokens--;
+    }
+
+    public synchronized void pauseUntil(long untilMillis) {
+        pausedUntilMillis = Math.max(pausedUntilMillis, untilMillis);
+    }
+
+    private void refill(long nowMillis) {
+        if (nowMillis > lastRefillMillis) {
+            tokens = Math.min(capacity, tokens + (nowMillis - lastRefillMillis) * tokensPerMilli);
+            lastRefillMillis = nowMillis;
+        }
+    }
+}
@@ -2,10 +2,9 @@ package com.simpleplus.telegram.bots.components.tasks;
 
 import com.simpleplus.telegram.bots.components.BotContext;
 import com.simpleplus.telegram.bots.components.SunriseSunsetBot;
+import com.simpleplus.telegram.bots.components.sender.MessagePriority;
 
-import java.util.TimerTask;
-
-public class ScheduledMessage extends TimerTask {
+public class ScheduledMessage implements Runnable {
 
     private final Long chatID;
     private final String message;
@@ -17,9 +16,21 @@ public class ScheduledMessage extends TimerTask {
         this.bot = (SunriseSunsetBot) BotContext.getDefaultContext().getBean(SunriseSunsetBot.class);
     }
 
+    public Long getChatID() {
+        return chatID;
+    }
+
     @Override
     public void run() {
-        bot.reply(chatID, message);
+        bot.reply(chatID, message, MessagePriority.ALERT);
+    }
+
+    @Override
+    public String toString() {
+        return "ScheduledMessage{" +
+                "chatID=" + chatID +
+                ", message='" + message + '\'' +
+                '}';
     }
 
 }
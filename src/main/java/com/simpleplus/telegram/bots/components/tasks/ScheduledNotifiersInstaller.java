@@ -3,21 +3,23 @@ package com.simpleplus.telegram.bots.components.tasks;
 import com.simpleplus.telegram.bots.components.BotContext;
 import com.simpleplus.telegram.bots.components.Notifier;
 
-import java.util.TimerTask;
-
-public class ScheduledNotifiersInstaller extends TimerTask {
+public class ScheduledNotifiersInstaller implements Runnable {
     private Notifier notifier;
+    private int longitudeBand;
 
-    public ScheduledNotifiersInstaller() {
+    public ScheduledNotifiersInstaller(int longitudeBand) {
         this.notifier = (Notifier) BotContext.getDefaultContext().getBean(Notifier.class);
+        this.longitudeBand = longitudeBand;
     }
 
     public void run() {
-        notifier.installAllNotifiers();
+        notifier.installNotifiersOfBand(longitudeBand);
     }
 
     @Override
     public String toString() {
-        return "ScheduledNotifiersInstaller";
+        return "ScheduledNotifiersInstaller{" +
+                "longitudeBand=" + longitudeBand +
+                '}';
     }
 }
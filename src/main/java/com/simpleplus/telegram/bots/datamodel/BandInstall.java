@@ -0,0 +1,39 @@
+package com.simpleplus.telegram.bots.datamodel;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * When the notifiers of a {@link Coordinates#toLongitudeBand() longitude band} have last been installed (see
+ * {@link com.simpleplus.telegram.bots.components.Notifier}), so that the runs missed while the bot was stopped can be
+ * made up on startup.
+ */
+@Entity
+public class BandInstall {
+    @Id
+    @Column(name = "LONGITUDE_BAND")
+    private int longitudeBand;
+
+    /**
+     * When the last run has started, in milliseconds since the epoch.
+     */
+    @Column(name = "INSTALLED_AT")
+    private long installedAt;
+
+    public BandInstall() {
+    }
+
+    public BandInstall(int longitudeBand, long installedAt) {
+        this.longitudeBand = longitudeBand;
+        this.installedAt = installedAt;
+    }
+
+    public int getLongitudeBand() {
+        return longitudeBand;
+    }
+
+    public long getInstalledAt() {
+        return installedAt;
+    }
+}
@@ -0,0 +1,42 @@
+package com.simpleplus.telegram.bots.datamodel;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What is needed to schedule the notifiers of a chat: its {@link UserState}, its {@link UserAlert}s and the
+ * {@link SavedTimes} computed in advance for it, by date.
+ */
+public class ChatSchedule {
+    private final long chatId;
+    private final UserState userState;
+    private final Set<UserAlert> userAlerts;
+    private final Map<LocalDate, SavedTimes> savedTimes;
+
+    public ChatSchedule(long chatId,
+                        UserState userState,
+                        Set<UserAlert> userAlerts,
+                        Map<LocalDate, SavedTimes> savedTimes) {
+        this.chatId = chatId;
+        this.userState = userState;
+        this.userAlerts = userAlerts;
+        this.savedTimes = savedTimes;
+    }
+
+    public long getChatId() {
+        return chatId;
+    }
+
+    public UserState getUserState() {
+        return userState;
+    }
+
+    public Set<UserAlert> getUserAlerts() {
+        return userAlerts;
+    }
+
+    public Map<LocalDate, SavedTimes> getSavedTimes() {
+        return savedTimes;
+    }
+}
@@ -6,6 +6,19 @@ import java.util.Objects;
 
 @Embeddable
 public class Coordinates {
+    /**
+     * Cells are {@code 1 / CELLS_PER_DEGREE} degrees wide in both latitude and longitude.
+     */
+    public static final int CELLS_PER_DEGREE = 100;
+    /**
+     * Number of longitude cells in a row of latitude, with one more for longitude 180.
+     */
+    public static final long CELLS_PER_ROW = 360 * CELLS_PER_DEGREE + 1;
+    /**
+     * Number of longitude bands, one per hour of the day.
+     */
+    public static final int LONGITUDE_BANDS = 24;
+
     private double latitude;
     private double longitude;
 
@@ -19,6 +32,10 @@ public class Coordinates {
         this.longitude = 0;
     }
 
+    public Coordinates(Coordinates other) {
+        this(other.latitude, other.longitude);
+    }
+
     public void setLatitude(double latitude) {
         this.latitude = latitude;
     }
@@ -35,6 +52,29 @@ public class Coordinates {
         return latitude;
     }
 
+    /**
+     * Gets the cell of a grid over the globe which contains these coordinates. Chats in the same cell have
+     * practically the same sunrise and sunset times.
+     * <p>
+     * The same value is computed in SQL by {@code SchemaMigrator} for existing rows: keep them in sync.
+     */
+    public long toCell() {
+        long latitudeCell = (long) Math.floor((latitude + 90) * CELLS_PER_DEGREE);
+        long longitudeCell = (long) Math.floor((longitude + 180) * CELLS_PER_DEGREE);
+        return latitudeCell * CELLS_PER_ROW + longitudeCell;
+    }
+
+    /**
+     * Gets the band of 15 degrees of longitude which contains these coordinates: band {@code n} is centred on
+     * longitude {@code 15 * n}, so its local midnight is {@code n} hours before midnight UTC. Bands east of the date
+     * line are counted back from {@link #LONGITUDE_BANDS}, so that longitudes 180 and -180 are in the same band.
+     * <p>
+     * The same value is computed in SQL by {@code SchemaMigrator} for existing rows: keep them in sync.
+     */
+    public int toLongitudeBand() {
+        return Math.floorMod((int) Math.floor((longitude + 7.5) / 15), LONGITUDE_BANDS);
+    }
+
     @Override public boolean equals(Object o) {
         if (this == o)
             return true;
@@ -0,0 +1,71 @@
+package com.simpleplus.telegram.bots.datamodel;
+
+import javax.persistence.*;
+
+/**
+ * A message scheduled by {@link com.simpleplus.telegram.bots.components.BotScheduler} and not sent yet, kept so that
+ * it can be scheduled again after a restart.
+ */
+@Entity
+public class PendingAlert {
+    // Its own sequence, allocated in blocks: many rows are inserted every night
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "PENDING_ALERT_SEQUENCE")
+    @SequenceGenerator(name = "PENDING_ALERT_SEQUENCE", sequenceName = "PENDING_ALERT_SEQUENCE", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "CHAT_ID")
+    private long chatId;
+
+    /**
+     * The id of the {@link UserAlert} the message has been scheduled for, or {@code null} if none.
+     */
+    @Column(name = "ALERT_ID")
+    private Long alertId;
+
+    /**
+     * When the message is to be sent, in milliseconds since the epoch.
+     */
+    @Column(name = "FIRE_TIME")
+    private long fireTime;
+
+    @Column(name = "MESSAGE", length = 1024)
+    private String message;
+
+    /**
+     * When the message has been scheduled, in milliseconds since the epoch.
+     */
+    @Column(name = "SCHEDULED_AT")
+    private long scheduledAt;
+
+    public PendingAlert() {
+    }
+
+    public PendingAlert(long chatId, long alertId, long fireTime, String message, long scheduledAt) {
+        this.chatId = chatId;
+        this.alertId = alertId;
+        this.fireTime = fireTime;
+        this.message = message;
+        this.scheduledAt = scheduledAt;
+    }
+
+    public long getChatId() {
+        return chatId;
+    }
+
+    public long getAlertId() {
+        return alertId != null ? alertId : 0;
+    }
+
+    public long getFireTime() {
+        return fireTime;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public long getScheduledAt() {
+        return scheduledAt;
+    }
+}
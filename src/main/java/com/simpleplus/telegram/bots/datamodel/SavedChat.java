@@ -13,6 +13,19 @@ public class SavedChat {
     @Embedded
     private UserState userState;
 
+    /**
+     * The {@link Coordinates#toCell() cell} of the coordinates of {@link #userState}, to look chats up by location.
+     */
+    @Column(name = "COORDINATE_CELL")
+    private Long coordinateCell;
+
+    /**
+     * The {@link Coordinates#toLongitudeBand() longitude band} of {@link #userState}, to install the notifiers of the
+     * chats of a band at their local midnight.
+     */
+    @Column(name = "LONGITUDE_BAND")
+    private Integer longitudeBand;
+
     @OneToMany(fetch = FetchType.EAGER, cascade = CascadeType.ALL)
     @JoinColumn(name = "CHAT_ID")
     private Set<UserAlert> userAlerts = new HashSet<>();
@@ -23,7 +36,7 @@ public class SavedChat {
     public SavedChat(long chatId, UserState userState) {
 
         this.chatId = chatId;
-        this.userState = userState;
+        setUserState(userState);
     }
 
     public long getChatId() {
@@ -40,6 +53,18 @@ public class SavedChat {
 
     public void setUserState(UserState userState) {
         this.userState = userState;
+        this.coordinateCell = userState != null && userState.getCoordinates() != null ?
+                userState.getCoordinates().toCell() : null;
+        this.longitudeBand = userState != null && userState.getCoordinates() != null ?
+                userState.getCoordinates().toLongitudeBand() : null;
+    }
+
+    public Long getCoordinateCell() {
+        return coordinateCell;
+    }
+
+    public Integer getLongitudeBand() {
+        return longitudeBand;
     }
 
     public Set<UserAlert> getUserAlerts() {
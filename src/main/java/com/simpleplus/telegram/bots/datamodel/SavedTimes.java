@@ -0,0 +1,58 @@
+package com.simpleplus.telegram.bots.datamodel;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+
+/**
+ * The {@link SunsetSunriseTimes} of a chat for a day, computed in advance (see
+ * {@link com.simpleplus.telegram.bots.components.Notifier}).
+ * <p>
+ * The times are valid only as long as the chat stays in the {@link Coordinates#toCell() cell} they were computed for.
+ */
+@Entity
+public class SavedTimes {
+    // Its own sequence, allocated in blocks: many rows are inserted every night
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "SAVED_TIMES_SEQUENCE")
+    @SequenceGenerator(name = "SAVED_TIMES_SEQUENCE", sequenceName = "SAVED_TIMES_SEQUENCE", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "CHAT_ID")
+    private long chatId;
+
+    @Column(name = "TIMES_DATE")
+    private LocalDate date;
+
+    @Column(name = "COORDINATE_CELL")
+    private long coordinateCell;
+
+    @Convert(converter = SunsetSunriseTimesConverter.class)
+    @Column(name = "TIMES", length = 2048)
+    private SunsetSunriseTimes times;
+
+    public SavedTimes() {
+    }
+
+    public SavedTimes(long chatId, LocalDate date, long coordinateCell, SunsetSunriseTimes times) {
+        this.chatId = chatId;
+        this.date = date;
+        this.coordinateCell = coordinateCell;
+        this.times = times;
+    }
+
+    public long getChatId() {
+        return chatId;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public long getCoordinateCell() {
+        return coordinateCell;
+    }
+
+    public SunsetSunriseTimes getTimes() {
+        return times;
+    }
+}
@@ -0,0 +1,53 @@
+package com.simpleplus.telegram.bots.datamodel;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The events whose times are computed by a {@link com.simpleplus.telegram.bots.services.SunsetSunriseService}, with
+ * the names used by the service.
+ */
+public enum SunEvent {
+    SOLAR_NOON("solarNoon"),
+    NADIR("nadir"),
+    SUNRISE("sunrise"),
+    SUNSET("sunset"),
+    SUNRISE_END("sunriseEnd"),
+    SUNSET_START("sunsetStart"),
+    DAWN("dawn"),
+    DUSK("dusk"),
+    NAUTICAL_DAWN("nauticalDawn"),
+    NAUTICAL_DUSK("nauticalDusk"),
+    NIGHT_END("nightEnd"),
+    NIGHT("night"),
+    GOLDEN_HOUR_END("goldenHourEnd"),
+    GOLDEN_HOUR("goldenHour"),
+    MOONRISE("moonRise"),
+    MOONSET("moonSet");
+
+    private static final Map<String, SunEvent> BY_INTERNAL_NAME = new HashMap<>();
+
+    static {
+        for (SunEvent event : values()) {
+            BY_INTERNAL_NAME.put(event.internalName, event);
+        }
+    }
+
+    private final String internalName;
+
+    SunEvent(String internalName) {
+        this.internalName = internalName;
+    }
+
+    public String getInternalName() {
+        return internalName;
+    }
+
+    /**
+     * Gets the event with the given name, or {@code null} if there is none.
+     */
+    public static @Nullable SunEvent fromInternalName(String internalName) {
+        return BY_INTERNAL_NAME.get(internalName);
+    }
+}
@@ -0,0 +1,46 @@
+package com.simpleplus.telegram.bots.datamodel;
+
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * The coordinates and the date to get {@link SunsetSunriseTimes} for, as part of a batch.
+ */
+public class SunsetSunriseQuery {
+    private final Coordinates coordinates;
+    private final LocalDate date;
+
+    public SunsetSunriseQuery(Coordinates coordinates, LocalDate date) {
+        this.coordinates = coordinates;
+        this.date = date;
+    }
+
+    public Coordinates getCoordinates() {
+        return coordinates;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SunsetSunriseQuery that = (SunsetSunriseQuery) o;
+        return coordinates.equals(that.coordinates) && date.equals(that.date);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(coordinates, date);
+    }
+
+    @Override
+    public String toString() {
+        return "SunsetSunriseQuery{" +
+                "coordinates=" + coordinates +
+                ", date=" + date +
+                '}';
+    }
+}
@@ -2,18 +2,65 @@ package com.simpleplus.telegram.bots.datamodel;
 
 import javax.annotation.Nullable;
 import java.time.*;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * The times of the {@link SunEvent}s of a day, in seconds since the epoch, stored in an array indexed by the ordinal of
+ * the event. Events which do not happen on that day, as sunrise and sunset during the polar day or night, are
+ * {@link #NOT_APPLICABLE}.
+ * <p>
+ * Times are truncated to the second, and times with a name which is not of a {@link SunEvent} are ignored.
+ */
 public class SunsetSunriseTimes {
-    private final Map<String, LocalDateTime> times = new HashMap<>();
+    public static final long NOT_APPLICABLE = Long.MIN_VALUE;
+
+    private final long[] epochSeconds = new long[SunEvent.values().length];
+
+    public SunsetSunriseTimes() {
+        Arrays.fill(epochSeconds, NOT_APPLICABLE);
+    }
+
+    /**
+     * Gets the time of an event, in seconds since the epoch, or {@link #NOT_APPLICABLE}.
+     */
+    public long getEpochSecond(SunEvent event) {
+        return epochSeconds[event.ordinal()];
+    }
+
+    public void putEpochSecond(SunEvent event, long epochSecond) {
+        epochSeconds[event.ordinal()] = epochSecond;
+    }
 
     public @Nullable LocalDateTime getTime(String timeType) {
-        return times.get(timeType);
+        SunEvent event = SunEvent.fromInternalName(timeType);
+        return event != null ? toLocalDateTime(getEpochSecond(event)) : null;
     }
 
     public void putTime(String timeType, LocalDateTime time) {
-        times.put(timeType, time);
+        SunEvent event = SunEvent.fromInternalName(timeType);
+        if (event != null) {
+            putEpochSecond(event, time.toEpochSecond(ZoneOffset.UTC));
+        }
+    }
+
+    /**
+     * Gets all the times, by name.
+     */
+    public Map<String, LocalDateTime> asMap() {
+        Map<String, LocalDateTime> times = new LinkedHashMap<>();
+        for (SunEvent event : SunEvent.values()) {
+            LocalDateTime time = toLocalDateTime(getEpochSecond(event));
+            if (time != null) {
+                times.put(event.getInternalName(), time);
+            }
+        }
+        return Collections.unmodifiableMap(times);
+    }
+
+    private static @Nullable LocalDateTime toLocalDateTime(long epochSecond) {
+        return epochSecond != NOT_APPLICABLE ? LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC) : null;
     }
 }
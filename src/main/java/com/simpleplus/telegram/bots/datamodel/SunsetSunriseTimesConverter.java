@@ -0,0 +1,41 @@
+package com.simpleplus.telegram.bots.datamodel;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Stores {@link SunsetSunriseTimes} in a single column, as {@code name=time} pairs separated by {@code ;}, times being
+ * in ISO-8601 format.
+ */
+@Converter
+public class SunsetSunriseTimesConverter implements AttributeConverter<SunsetSunriseTimes, String> {
+    @Override
+    public String convertToDatabaseColumn(SunsetSunriseTimes times) {
+        if (times == null) {
+            return null;
+        }
+
+        return times.asMap().entrySet().stream()
+                .map(entry -> entry.getKey() + "=" + entry.getValue())
+                .collect(Collectors.joining(";"));
+    }
+
+    @Override
+    public SunsetSunriseTimes convertToEntityAttribute(String column) {
+        if (column == null) {
+            return null;
+        }
+
+        SunsetSunriseTimes times = new SunsetSunriseTimes();
+        for (String pair : column.split(";")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                times.putTime(pair.substring(0, separator), LocalDateTime.parse(pair.substring(separator + 1)));
+            }
+        }
+        return times;
+    }
+}
@@ -1,5 +1,7 @@
 package com.simpleplus.telegram.bots.datamodel;
 
+import javax.annotation.Nullable;
+
 public enum TimeType {
     SUNRISE(
             "The sun is rising.",
@@ -126,11 +128,13 @@ public enum TimeType {
     private String message;
     private String readableName;
     private String internalName;
+    private SunEvent sunEvent;
 
     TimeType(String message, String readableName, String internalName) {
         this.message = message;
         this.readableName = readableName;
         this.internalName = internalName;
+        this.sunEvent = SunEvent.fromInternalName(internalName);
     }
 
     public String getMessage() {
@@ -144,4 +148,11 @@ public enum TimeType {
     public String getInternalName() {
         return internalName;
     }
+
+    /**
+     * Gets the event of this time, or {@code null} for {@link #DEFAULT}.
+     */
+    public @Nullable SunEvent getSunEvent() {
+        return sunEvent;
+    }
 }
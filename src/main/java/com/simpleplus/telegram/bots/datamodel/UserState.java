@@ -26,6 +26,10 @@ public class UserState {
         this(null, null, false);
     }
 
+    public UserState(UserState other) {
+        this(other.coordinates != null ? new Coordinates(other.coordinates) : null, other.step, other.isAdmin);
+    }
+
     public Step getStep() {
         return step;
     }
@@ -2,13 +2,122 @@ package com.simpleplus.telegram.bots.services;
 
 import com.simpleplus.telegram.bots.components.BotBean;
 import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseQuery;
 import com.simpleplus.telegram.bots.datamodel.SunsetSunriseTimes;
 import com.simpleplus.telegram.bots.exceptions.ServiceException;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 public interface SunsetSunriseService extends BotBean {
+    /**
+     * How long {@link #await(CompletableFuture)} waits: long enough for a batch queued behind many others.
+     */
+    Duration AWAIT_TIMEOUT = Duration.ofMinutes(5);
+
     SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates, LocalDate localDate) throws ServiceException;
 
     SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates) throws ServiceException;
+
+    /**
+     * Gets the times without waiting for them, if the service supports it. By default, the times are computed by the
+     * calling thread and the returned future is already completed.
+     *
+     * @return a future completed with the times, or exceptionally with a {@link ServiceException}.
+     */
+    default CompletableFuture<SunsetSunriseTimes> getSunsetSunriseTimesAsync(Coordinates coordinates,
+                                                                            LocalDate localDate) {
+        try {
+            return CompletableFuture.completedFuture(getSunsetSunriseTimes(coordinates, localDate));
+        } catch (ServiceException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Gets the times for many coordinates and dates at once. Services which can answer a batch in one go should
+     * override this method: by default, every query is made separately with {@link #getSunsetSunriseTimesAsync}.
+     *
+     * @return a future completed with the times of each query, in the same order, or exceptionally with a
+     * {@link ServiceException} if the times of any query cannot be got.
+     */
+    default CompletableFuture<List<SunsetSunriseTimes>> getSunsetSunriseTimesAsync(List<SunsetSunriseQuery> queries) {
+        List<CompletableFuture<SunsetSunriseTimes>> futures = new ArrayList<>(queries.size());
+        for (SunsetSunriseQuery query : queries) {
+            futures.add(getSunsetSunriseTimesAsync(query.getCoordinates(), query.getDate()));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(ignored ->
+                futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    /**
+     * Gets the times for many coordinates and dates at once.
+     *
+     * @return the times of each query, in the same order.
+     * @see #getSunsetSunriseTimesAsync(List)
+     */
+    default List<SunsetSunriseTimes> getSunsetSunriseTimes(List<SunsetSunriseQuery> queries)
+            throws ServiceException {
+        return await(getSunsetSunriseTimesAsync(queries));
+    }
+
+    /**
+     * Gets the times of {@code days} consecutive days, starting from {@code from}, for the same coordinates.
+     *
+     * @return a future completed with the times of each day, in order.
+     * @see #getSunsetSunriseTimesAsync(List)
+     */
+    default CompletableFuture<List<SunsetSunriseTimes>> getSunsetSunriseTimesAsync(Coordinates coordinates,
+                                                                                  LocalDate from,
+                                                                                  int days) {
+        List<SunsetSunriseQuery> queries = new ArrayList<>(days);
+        for (int day = 0; day < days; day++) {
+            queries.add(new SunsetSunriseQuery(coordinates, from.plusDays(day)));
+        }
+
+        return getSunsetSunriseTimesAsync(queries);
+    }
+
+    /**
+     * Waits for times got with {@link #getSunsetSunriseTimesAsync}, for at most {@link #AWAIT_TIMEOUT}.
+     */
+    static <T> T await(CompletableFuture<T> times) throws ServiceException {
+        return await(times, AWAIT_TIMEOUT);
+    }
+
+    /**
+     * Waits for times got with {@link #getSunsetSunriseTimesAsync}, for at most {@code timeout}. The future is not
+     * cancelled on timeout, since other callers may be waiting for it as well.
+     */
+    static <T> T await(CompletableFuture<T> times, Duration timeout) throws ServiceException {
+        try {
+            return times.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while waiting for times.", e);
+        } catch (ExecutionException e) {
+            throw toServiceException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new ServiceException("Timed out after " + timeout + " while waiting for times.", e);
+        }
+    }
+
+    /**
+     * Gets the {@link ServiceException} which made a future fail.
+     */
+    static ServiceException toServiceException(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ?
+                throwable.getCause() : throwable;
+        return cause instanceof ServiceException ?
+                (ServiceException) cause : new ServiceException("Internal service error (" + cause + ")", cause);
+    }
 }
@@ -0,0 +1,251 @@
+package com.simpleplus.telegram.bots.services.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.simpleplus.telegram.bots.components.BotBean;
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseQuery;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseTimes;
+import com.simpleplus.telegram.bots.exceptions.ServiceException;
+import com.simpleplus.telegram.bots.services.SunsetSunriseService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link SunsetSunriseService} which caches the results of another one. Coordinates are quantized in square cells of
+ * {@code cellSize} degrees: all the coordinates falling in the same cell share the times computed for the center of
+ * the cell, so that users living in the same town cost a single call to the underlying service per day.
+ * <p>
+ * The cache holds at most {@code maximumSize} entries, evicting the least recently used ones, and every entry expires
+ * {@code timeToLive} after it has been computed.
+ * <p>
+ * The entries missing from the cache for a batch of queries are asked to the underlying service in a single batch.
+ */
+public class CachingSunsetSunriseService implements SunsetSunriseService, BotBean {
+    private static final Logger LOG = LogManager.getLogger(CachingSunsetSunriseService.class);
+
+    private final SunsetSunriseService delegate;
+    private final double cellSize;
+    private final Cache<CacheKey, SunsetSunriseTimes> cache;
+    // Asynchronous calls to the delegate not completed yet, shared by the callers asking for the same entry
+    private final Map<CacheKey, CompletableFuture<SunsetSunriseTimes>> pendingCalls = new ConcurrentHashMap<>();
+
+    public CachingSunsetSunriseService(SunsetSunriseService delegate,
+                                       double cellSize,
+                                       long maximumSize,
+                                       Duration timeToLive) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("cellSize must be positive.");
+        }
+
+        this.delegate = delegate;
+        this.cellSize = cellSize;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public void init() {
+        delegate.init();
+    }
+
+    @Override
+    public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates, LocalDate localDate)
+            throws ServiceException {
+        CacheKey key = keyOf(coordinates, localDate);
+
+        try {
+            return cache.get(key, () -> delegate.getSunsetSunriseTimes(centerOf(key), localDate));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ServiceException) {
+                throw (ServiceException) e.getCause();
+            }
+            throw new ServiceException("Error while computing times for " + coordinates, e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw new ServiceException("Error while computing times for " + coordinates, e.getCause());
+        }
+    }
+
+    @Override
+    public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates) throws ServiceException {
+        return getSunsetSunriseTimes(coordinates, LocalDate.now());
+    }
+
+    @Override
+    public CompletableFuture<SunsetSunriseTimes> getSunsetSunriseTimesAsync(Coordinates coordinates,
+                                                                           LocalDate localDate) {
+        CacheKey key = keyOf(coordinates, localDate);
+        SunsetSunriseTimes cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<SunsetSunriseTimes> created = new CompletableFuture<>();
+        CompletableFuture<SunsetSunriseTimes> pending = pendingCalls.putIfAbsent(key, created);
+        if (pending != null) {
+            return pending;
+        }
+
+        try {
+            delegate.getSunsetSunriseTimesAsync(centerOf(key), localDate)
+                    .whenComplete((times, e) -> onCallCompleted(key, created, times, e));
+        } catch (RuntimeException e) {
+            // Otherwise the pending call would never be completed, and every following caller would wait for it
+            onCallCompleted(key, created, null, e);
+        }
+
+        return created;
+    }
+
+    @Override
+    public CompletableFuture<List<SunsetSunriseTimes>> getSunsetSunriseTimesAsync(List<SunsetSunriseQuery> queries) {
+        List<CompletableFuture<SunsetSunriseTimes>> results = new ArrayList<>(queries.size());
+        // Entries neither cached nor pending, each asked once even if more queries fall in it
+        Map<CacheKey, CompletableFuture<SunsetSunriseTimes>> misses = new LinkedHashMap<>();
+
+        for (SunsetSunriseQuery query : queries) {
+            CacheKey key = keyOf(query.getCoordinates(), query.getDate());
+            SunsetSunriseTimes cached = cache.getIfPresent(key);
+            if (cached != null) {
+                results.add(CompletableFuture.completedFuture(cached));
+                continue;
+            }
+
+            CompletableFuture<SunsetSunriseTimes> result = misses.get(key);
+            if (result == null) {
+                CompletableFuture<SunsetSunriseTimes> created = new CompletableFuture<>();
+                CompletableFuture<SunsetSunriseTimes> pending = pendingCalls.putIfAbsent(key, created);
+                if (pending == null) {
+                    misses.put(key, created);
+                }
+                result = pending != null ? pending : created;
+            }
+            results.add(result);
+        }
+
+        if (!misses.isEmpty()) {
+            List<CacheKey> keys = new ArrayList<>(misses.keySet());
+            List<SunsetSunriseQuery> centers = keys.stream()
+                    .map(key -> new SunsetSunriseQuery(centerOf(key), key.date))
+                    .collect(Collectors.toList());
+
+            CompletableFuture<List<SunsetSunriseTimes>> call;
+            try {
+                call = delegate.getSunsetSunriseTimesAsync(centers);
+            } catch (RuntimeException e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+
+            call.whenComplete((times, e) -> {
+                Throwable error = e;
+                if (error == null && (times == null || times.size() != keys.size())) {
+                    error = new ServiceException("Expected " + keys.size() + " times, got " +
+                            (times == null ? "none" : times.size()));
+                }
+                for (int i = 0; i < keys.size(); i++) {
+                    CacheKey key = keys.get(i);
+                    onCallCompleted(key, misses.get(key), error == null ? times.get(i) : null, error);
+                }
+            });
+        }
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).thenApply(ignored ->
+                results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    /**
+     * Gets hit, miss and eviction counters of the cache.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public void logStats() {
+        CacheStats stats = cache.stats();
+        LOG.info("Sunset/sunrise cache: {} entries, {} hits, {} misses, {} evictions (hit rate {}).",
+                cache.size(), stats.hitCount(), stats.missCount(), stats.evictionCount(),
+                String.format("%.2f", stats.hitRate()));
+    }
+
+    private void onCallCompleted(CacheKey key,
+                                 CompletableFuture<SunsetSunriseTimes> result,
+                                 SunsetSunriseTimes times,
+                                 Throwable e) {
+        if (e == null && times == null) {
+            e = new ServiceException("No times for " + centerOf(key) + " on " + key.date);
+        }
+        try {
+            if (e == null) {
+                cache.put(key, times);
+            }
+        } finally {
+            // Whatever happens, the call must not be left pending
+            pendingCalls.remove(key);
+            if (e == null) {
+                result.complete(times);
+            } else {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private CacheKey keyOf(Coordinates coordinates, LocalDate localDate) {
+        return new CacheKey(cellOf(coordinates.getLatitude()), cellOf(coordinates.getLongitude()), localDate);
+    }
+
+    private Coordinates centerOf(CacheKey key) {
+        return new Coordinates(centerOf(key.latitudeCell), centerOf(key.longitudeCell));
+    }
+
+    private long cellOf(double degrees) {
+        return (long) Math.floor(degrees / cellSize);
+    }
+
+    private double centerOf(long cell) {
+        return (cell + 0.5) * cellSize;
+    }
+
+    private static class CacheKey {
+        private final long latitudeCell;
+        private final long longitudeCell;
+        private final LocalDate date;
+
+        private CacheKey(long latitudeCell, long longitudeCell, LocalDate date) {
+            this.latitudeCell = latitudeCell;
+            this.longitudeCell = longitudeCell;
+            this.date = date;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey cacheKey = (CacheKey) o;
+            return latitudeCell == cacheKey.latitudeCell &&
+                    longitudeCell == cacheKey.longitudeCell &&
+                    date.equals(cacheKey.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(latitudeCell, longitudeCell, date);
+        }
+    }
+}
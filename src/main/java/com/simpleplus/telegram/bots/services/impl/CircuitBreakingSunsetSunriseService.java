@@ -0,0 +1,171 @@
+package com.simpleplus.telegram.bots.services.impl;
+
+import com.simpleplus.telegram.bots.components.BotBean;
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseQuery;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseTimes;
+import com.simpleplus.telegram.bots.exceptions.ServiceException;
+import com.simpleplus.telegram.bots.services.SunsetSunriseService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * A {@link SunsetSunriseService} which stops calling another one while it is failing.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the circuit opens: for the following {@code openDuration} every
+ * call fails immediately with a {@link ServiceException}, without reaching the underlying service. Then a single trial
+ * call is let through: if it succeeds the circuit closes again, otherwise it stays open for another
+ * {@code openDuration}.
+ */
+public class CircuitBreakingSunsetSunriseService implements SunsetSunriseService, BotBean {
+    private static final Logger LOG = LogManager.getLogger(CircuitBreakingSunsetSunriseService.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final SunsetSunriseService delegate;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Clock clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtMillis;
+
+    public CircuitBreakingSunsetSunriseService(SunsetSunriseService delegate,
+                                               int failureThreshold,
+                                               Duration openDuration) {
+        this(delegate, failureThreshold, openDuration, Clock.systemUTC());
+    }
+
+    CircuitBreakingSunsetSunriseService(SunsetSunriseService delegate,
+                                        int failureThreshold,
+                                        Duration openDuration,
+                                        Clock clock) {
+        this.delegate = delegate;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.clock = clock;
+    }
+
+    @Override
+    public void init() {
+        delegate.init();
+    }
+
+    @Override
+    public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates, LocalDate localDate)
+            throws ServiceException {
+        acquirePermission();
+
+        try {
+            SunsetSunriseTimes times = delegate.getSunsetSunriseTimes(coordinates, localDate);
+            onSuccess();
+            return times;
+        } catch (ServiceException | RuntimeException e) {
+            onFailure();
+            throw e;
+        }
+    }
+
+    @Override
+    public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates) throws ServiceException {
+        return getSunsetSunriseTimes(coordinates, LocalDate.now());
+    }
+
+    @Override
+    public CompletableFuture<SunsetSunriseTimes> getSunsetSunriseTimesAsync(Coordinates coordinates,
+                                                                           LocalDate localDate) {
+        try {
+            acquirePermission();
+        } catch (ServiceException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return callDelegate(() -> delegate.getSunsetSunriseTimesAsync(coordinates, localDate));
+    }
+
+    /**
+     * Lets the whole batch through as a single call: it counts as one success or one failure.
+     */
+    @Override
+    public CompletableFuture<List<SunsetSunriseTimes>> getSunsetSunriseTimesAsync(List<SunsetSunriseQuery> queries) {
+        try {
+            acquirePermission();
+        } catch (ServiceException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return callDelegate(() -> delegate.getSunsetSunriseTimesAsync(queries));
+    }
+
+    private <T> CompletableFuture<T> callDelegate(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            // Counted as well, otherwise a half-open circuit would wait for this trial call forever
+            result = CompletableFuture.failedFuture(e);
+        }
+
+        return result.whenComplete((times, e) -> {
+            if (e == null) {
+                onSuccess();
+            } else {
+                onFailure();
+            }
+        });
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private synchronized void acquirePermission() throws ServiceException {
+        switch (state) {
+            case CLOSED:
+                return;
+            case OPEN:
+                if (clock.millis() - openedAtMillis >= openDuration.toMillis()) {
+                    LOG.info("Circuit half-open: letting a trial call through.");
+                    state = State.HALF_OPEN;
+                    return;
+                }
+                break;
+            case HALF_OPEN:
+                // A trial call is already in progress
+                break;
+        }
+
+        throw new ServiceException("Sunset/sunrise service not available: circuit is " + state + ".");
+    }
+
+    private synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOG.info("Circuit closed.");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    private synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                LOG.warn("Circuit opened after {} consecutive failures.", consecutiveFailures);
+            }
+            state = State.OPEN;
+            openedAtMillis = clock.millis();
+        }
+    }
+}
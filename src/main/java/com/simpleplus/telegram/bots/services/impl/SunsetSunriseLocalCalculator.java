@@ -0,0 +1,204 @@
+package com.simpleplus.telegram.bots.services.impl;
+
+import com.simpleplus.telegram.bots.components.BotBean;
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.SunEvent;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseTimes;
+import com.simpleplus.telegram.bots.services.SunsetSunriseService;
+
+import java.time.LocalDate;
+
+import static com.simpleplus.telegram.bots.datamodel.SunEvent.*;
+
+/**
+ * An in-process {@link SunsetSunriseService}: it computes the same times of the remote API (i.e. of the
+ * <a href="https://github.com/mourner/suncalc">SunCalc</a> library, on which this class is a port) with plain
+ * arithmetic, without any network round-trip.
+ * <p>
+ * Like the remote API, times are computed for the given date at midnight UTC, are expressed in UTC and are missing
+ * when not applicable for the given coordinates (e.g. sunrise during polar night).
+ */
+public class SunsetSunriseLocalCalculator implements SunsetSunriseService, BotBean {
+    private static final double RAD = Math.PI / 180;
+    private static final double DAY_MS = 1000 * 60 * 60 * 24;
+    private static final double J1970 = 2440588;
+    private static final double J2000 = 2451545;
+    private static final double J0 = 0.0009;
+    private static final double OBLIQUITY = RAD * 23.4397;
+    private static final double MOON_HORIZON_CORRECTION = 0.133 * RAD;
+
+    // Sun altitude (in degrees), morning time name, evening time name
+    private static final double[] TIMES_ANGLES = {-0.833, -0.3, -6, -12, -18, 6};
+    private static final SunEvent[] TIMES_MORNING =
+            {SUNRISE, SUNRISE_END, DAWN, NAUTICAL_DAWN, NIGHT_END, GOLDEN_HOUR_END};
+    private static final SunEvent[] TIMES_EVENING =
+            {SUNSET, SUNSET_START, DUSK, NAUTICAL_DUSK, NIGHT, GOLDEN_HOUR};
+
+    @Override
+    public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates, LocalDate localDate) {
+        SunsetSunriseTimes times = new SunsetSunriseTimes();
+        long midnightMillis = localDate.toEpochDay() * (long) DAY_MS;
+        putSunTimes(times, midnightMillis, coordinates.getLatitude(), coordinates.getLongitude());
+        putMoonTimes(times, midnightMillis, coordinates.getLatitude(), coordinates.getLongitude());
+        return times;
+    }
+
+    @Override
+    public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates) {
+        return getSunsetSunriseTimes(coordinates, LocalDate.now());
+    }
+
+    private static void putSunTimes(SunsetSunriseTimes times, long dateMillis, double lat, double lng) {
+        double lw = RAD * -lng;
+        double phi = RAD * lat;
+        double d = toDays(dateMillis);
+        double n = Math.round(d - J0 - lw / (2 * Math.PI));
+        double ds = approxTransit(0, lw, n);
+        double m = solarMeanAnomaly(ds);
+        double l = eclipticLongitude(m);
+        double dec = declination(l, 0);
+        double jNoon = solarTransitJ(ds, m, l);
+
+        putTime(times, SOLAR_NOON, jNoon);
+        putTime(times, NADIR, jNoon - 0.5);
+
+        for (int i = 0; i < TIMES_ANGLES.length; i++) {
+            double w = Math.acos((Math.sin(TIMES_ANGLES[i] * RAD) - Math.sin(phi) * Math.sin(dec)) /
+                    (Math.cos(phi) * Math.cos(dec)));
+            double jSet = solarTransitJ(approxTransit(w, lw, n), m, l);
+            double jRise = jNoon - (jSet - jNoon);
+
+            putTime(times, TIMES_MORNING[i], jRise);
+            putTime(times, TIMES_EVENING[i], jSet);
+        }
+    }
+
+    private static void putMoonTimes(SunsetSunriseTimes times, long dateMillis, double lat, double lng) {
+        double h0 = moonAltitude(dateMillis, lat, lng) - MOON_HORIZON_CORRECTION;
+        double rise = 0;
+        double set = 0;
+
+        // Go in 2-hour chunks, each time seeing if a 3-point quadratic curve crosses zero (which means rise or set)
+        for (int i = 1; i <= 24; i += 2) {
+            double h1 = moonAltitude(hoursLater(dateMillis, i), lat, lng) - MOON_HORIZON_CORRECTION;
+            double h2 = moonAltitude(hoursLater(dateMillis, i + 1), lat, lng) - MOON_HORIZON_CORRECTION;
+
+            double a = (h0 + h2) / 2 - h1;
+            double b = (h2 - h0) / 2;
+            double xe = -b / (2 * a);
+            double ye = (a * xe + b) * xe + h1;
+            double d = b * b - 4 * a * h1;
+            double x1 = 0;
+            double x2 = 0;
+            int roots = 0;
+
+            if (d >= 0) {
+                double dx = Math.sqrt(d) / (Math.abs(a) * 2);
+                x1 = xe - dx;
+                x2 = xe + dx;
+                if (Math.abs(x1) <= 1) {
+                    roots++;
+                }
+                if (Math.abs(x2) <= 1) {
+                    roots++;
+                }
+                if (x1 < -1) {
+                    x1 = x2;
+                }
+            }
+
+            if (roots == 1) {
+                if (h0 < 0) {
+                    rise = i + x1;
+                } else {
+                    set = i + x1;
+                }
+            } else if (roots == 2) {
+                rise = i + (ye < 0 ? x2 : x1);
+                set = i + (ye < 0 ? x1 : x2);
+            }
+
+            if (rise != 0 && set != 0) {
+                break;
+            }
+
+            h0 = h2;
+        }
+
+        if (rise != 0) {
+            times.putEpochSecond(MOONRISE, toEpochSecond((long) hoursLater(dateMillis, rise)));
+        }
+        if (set != 0) {
+            times.putEpochSecond(MOONSET, toEpochSecond((long) hoursLater(dateMillis, set)));
+        }
+    }
+
+    private static double moonAltitude(double dateMillis, double lat, double lng) {
+        double lw = RAD * -lng;
+        double phi = RAD * lat;
+        double d = toDays(dateMillis);
+
+        // Geocentric ecliptic coordinates of the moon
+        double l = RAD * (218.316 + 13.176396 * d);
+        double m = RAD * (134.963 + 13.064993 * d);
+        double f = RAD * (93.272 + 13.229350 * d);
+        double longitude = l + RAD * 6.289 * Math.sin(m);
+        double latitude = RAD * 5.128 * Math.sin(f);
+
+        double ra = rightAscension(longitude, latitude);
+        double dec = declination(longitude, latitude);
+        double hourAngle = RAD * (280.16 + 360.9856235 * d) - lw - ra;
+        double h = Math.asin(Math.sin(phi) * Math.sin(dec) + Math.cos(phi) * Math.cos(dec) * Math.cos(hourAngle));
+
+        // Altitude correction for refraction
+        double hr = Math.max(h, 0);
+        return h + 0.0002967 / Math.tan(hr + 0.00312536 / (hr + 0.08901179));
+    }
+
+    private static void putTime(SunsetSunriseTimes times, SunEvent event, double julian) {
+        if (Double.isNaN(julian)) {
+            // Not applicable for the given coordinates
+            return;
+        }
+
+        times.putEpochSecond(event, toEpochSecond((long) ((julian + 0.5 - J1970) * DAY_MS)));
+    }
+
+    private static long toEpochSecond(long epochMillis) {
+        return Math.floorDiv(epochMillis, 1000);
+    }
+
+    private static double hoursLater(double dateMillis, double hours) {
+        return dateMillis + hours * DAY_MS / 24;
+    }
+
+    private static double toDays(double dateMillis) {
+        return dateMillis / DAY_MS - 0.5 + J1970 - J2000;
+    }
+
+    private static double rightAscension(double l, double b) {
+        return Math.atan2(Math.sin(l) * Math.cos(OBLIQUITY) - Math.tan(b) * Math.sin(OBLIQUITY), Math.cos(l));
+    }
+
+    private static double declination(double l, double b) {
+        return Math.asin(Math.sin(b) * Math.cos(OBLIQUITY) + Math.cos(b) * Math.sin(OBLIQUITY) * Math.sin(l));
+    }
+
+    private static double solarMeanAnomaly(double d) {
+        return RAD * (357.5291 + 0.98560028 * d);
+    }
+
+    private static double eclipticLongitude(double m) {
+        double c = RAD * (1.9148 * Math.sin(m) + 0.02 * Math.sin(2 * m) + 0.0003 * Math.sin(3 * m));
+        double p = RAD * 102.9372;
+        return m + c + p + Math.PI;
+    }
+
+    private static double approxTransit(double ht, double lw, double n) {
+        return J0 + (ht + lw) / (2 * Math.PI) + n;
+    }
+
+    private static double solarTransitJ(double ds, double m, double l) {
+        return J2000 + ds + 0.0053 * Math.sin(m) - 0.0069 * Math.sin(2 * l);
+    }
+}
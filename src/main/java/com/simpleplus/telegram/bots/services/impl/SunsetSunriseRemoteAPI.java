@@ -1,38 +1,107 @@
 package com.simpleplus.telegram.bots.services.impl;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.simpleplus.telegram.bots.components.BotBean;
 import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.SunEvent;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseQuery;
 import com.simpleplus.telegram.bots.datamodel.SunsetSunriseTimes;
 import com.simpleplus.telegram.bots.exceptions.ServiceException;
 import com.simpleplus.telegram.bots.services.SunsetSunriseService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.util.Locale;
-import java.util.Map;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Gets the times from the Node.js API ({@code src/main/node}).
+ * <p>
+ * Requests go through a single {@link HttpClient}, which keeps its connections open and reuses them. At most
+ * {@code maxConcurrentRequests} requests are in flight at the same time: the following ones wait in a queue, without
+ * holding any thread, and are sent as soon as a request completes.
+ * <p>
+ * Responses are not buffered: they are parsed while being read from the connection, by a separate pool of threads.
+ * <p>
+ * Batches of queries are posted to {@code /json/batch}, at most {@code maxBatchSize} queries per request. If the API
+ * does not have that endpoint (older versions answer 404), queries are made one by one from then on.
+ */
 public class SunsetSunriseRemoteAPI implements SunsetSunriseService, BotBean {
     private static final Logger LOG = LogManager.getLogger(SunsetSunriseRemoteAPI.class);
-    private static final String BASE_URL = "http://127.0.0.1:8500/json/%f/%f/%s";
+    // Thread-safe, and expensive to create: shared by all the calls
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int NOT_FOUND = 404;
+
+    private final String baseUrl;
+    private final Duration requestTimeout;
+    private final int maxConcurrentRequests;
+    private final int maxBatchSize;
+    private final HttpClient httpClient;
+    // Responses are read while parsing, which may block: not on the threads of the HttpClient
+    private final ExecutorService parserPool;
+    private volatile boolean batchSupported = true;
+
+    private final Queue<Runnable> waitingRequests = new ArrayDeque<>();
+    private int requestsInFlight;
+
+    /**
+     * @param baseUrl               the URL of the API, e.g. {@code http://127.0.0.1:8500}.
+     * @param connectTimeout        the maximum time to open a connection.
+     * @param requestTimeout        the maximum time to get a response, once the request has been sent.
+     * @param maxConcurrentRequests the maximum number of requests in flight.
+     * @param maxBatchSize          the maximum number of queries sent in a single batch request.
+     */
+    public SunsetSunriseRemoteAPI(String baseUrl,
+                                  Duration connectTimeout,
+                                  Duration requestTimeout,
+                                  int maxConcurrentRequests,
+                                  int maxBatchSize) {
+        this.baseUrl = baseUrl;
+        this.requestTimeout = requestTimeout;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.maxBatchSize = maxBatchSize;
+        this.httpClient = HttpClient.newBuilder()
+                // The API is plain HTTP/1.1: do not try to upgrade every new connection to HTTP/2
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .executor(Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                        .setNameFormat("sunset-sunrise-http-%d")
+                        .setDaemon(true)
+                        .build()))
+                .build();
+        this.parserPool = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("sunset-sunrise-parser-%d")
+                .setDaemon(true)
+                .build());
+    }
 
     @Override
     public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates, LocalDate localDate)
             throws ServiceException {
-        String result = callRemoteService(coordinates, localDate);
-        LOG.debug(result);
-        return parseResult(result);
+        return SunsetSunriseService.await(getSunsetSunriseTimesAsync(coordinates, localDate));
     }
 
     @Override
@@ -40,95 +109,290 @@ public class SunsetSunriseRemoteAPI implements SunsetSunriseService, BotBean {
         return getSunsetSunriseTimes(coordinates, LocalDate.now());
     }
 
-    private SunsetSunriseTimes parseResult(String result) throws ServiceException {
-        SunsetSunriseTimes times = new SunsetSunriseTimes();
-
+    /**
+     * Calls the remote API.
+     *
+     * @param localDate the date which will be passed to the service, in ISO format.
+     */
+    @Override
+    public CompletableFuture<SunsetSunriseTimes> getSunsetSunriseTimesAsync(Coordinates coordinates,
+                                                                           LocalDate localDate) {
+        HttpRequest request;
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            objectMapper.registerModule(new JavaTimeModule());
-            APIResponse response = objectMapper.readValue(result, APIResponse.class);
+            request = HttpRequest.newBuilder(URI.create(baseUrl + "/json/" +
+                            coordinates.getLatitude() + "/" + coordinates.getLongitude() + "/" + localDate))
+                    .header("Accept", "application/json")
+                    .timeout(requestTimeout)
+                    .GET()
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(
+                    new ServiceException("Internal service error (" + e.getMessage() + ")", e));
+        }
+        LOG.debug("Calling {}", request.uri());
 
-            if (!"OK".equals(response.status)) {
-                throw new ServiceException("Remote service error: " + response.message);
+        return send(request, response -> {
+            if (response.statusCode() != 200) {
+                throw new ServiceException("HTTP Error " + response.statusCode());
             }
+            return parseResult(response.body());
+        }).exceptionally(SunsetSunriseRemoteAPI::rethrowAsServiceException);
+    }
+
+    /**
+     * Calls the batch endpoint of the remote API, splitting the queries into requests of at most
+     * {@code maxBatchSize} queries.
+     */
+    @Override
+    public CompletableFuture<List<SunsetSunriseTimes>> getSunsetSunriseTimesAsync(List<SunsetSunriseQuery> queries) {
+        if (!batchSupported) {
+            return SunsetSunriseService.super.getSunsetSunriseTimesAsync(queries);
+        }
 
-            for (Map.Entry<String, LocalDateTime> entry : response.results.entrySet()) {
-                times.putTime(entry.getKey(), entry.getValue());
+        List<CompletableFuture<List<SunsetSunriseTimes>>> batches = new ArrayList<>();
+        for (int from = 0; from < queries.size(); from += maxBatchSize) {
+            batches.add(sendBatch(queries.subList(from, Math.min(from + maxBatchSize, queries.size()))));
+        }
+
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            List<SunsetSunriseTimes> times = new ArrayList<>(queries.size());
+            for (CompletableFuture<List<SunsetSunriseTimes>> batch : batches) {
+                times.addAll(batch.join());
             }
-        } catch (IOException e) {
-            throw new ServiceException("Internal service error (" + e.getMessage() + ")", e);
+            return times;
+        });
+    }
+
+    private CompletableFuture<List<SunsetSunriseTimes>> sendBatch(List<SunsetSunriseQuery> queries) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(baseUrl + "/json/batch"))
+                    .header("Accept", "application/json")
+                    .header("Content-Type", "application/json")
+                    .timeout(requestTimeout)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(writeBatch(queries)))
+                    .build();
+        } catch (IOException | IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(
+                    new ServiceException("Internal service error (" + e.getMessage() + ")", e));
         }
+        LOG.debug("Calling {} with {} queries", request.uri(), queries.size());
 
-        return times;
+        return send(request, response -> {
+            if (response.statusCode() == NOT_FOUND) {
+                return null;
+            }
+            if (response.statusCode() != 200) {
+                throw new ServiceException("HTTP Error " + response.statusCode());
+            }
+            return parseBatchResult(response.body(), queries.size());
+        }).thenCompose(times -> {
+            if (times != null) {
+                return CompletableFuture.completedFuture(times);
+            }
+            if (batchSupported) {
+                batchSupported = false;
+                LOG.warn("The remote API has no batch endpoint: queries will be made one by one.");
+            }
+            return SunsetSunriseService.super.getSunsetSunriseTimesAsync(queries);
+        }).exceptionally(SunsetSunriseRemoteAPI::rethrowAsServiceException);
+    }
+
+    private static <T> T rethrowAsServiceException(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        throw new CompletionException(cause instanceof ServiceException ?
+                cause : new ServiceException("IO Error (" + cause + ")", cause));
     }
 
     /**
-     * Calls the remote API and returns the response string.
-     *
-     * @param localDate the date which will be passed to the service. Please note that since it is a non-zoned date,
-     *                  prior to passing it to the API, it will be converted to a zoned one with system-default time
-     *                  zone (assuming start of day as time).
+     * Gets the number of requests waiting to be sent.
      */
-    private String callRemoteService(Coordinates coordinates, LocalDate localDate) throws ServiceException {
-        StringBuilder result = new StringBuilder();
+    public synchronized int getWaitingRequests() {
+        return waitingRequests.size();
+    }
 
-        try {
-            URL url = new URL(String.format(Locale.ROOT, BASE_URL,
-                    coordinates.getLatitude(),
-                    coordinates.getLongitude(),
-                    localDate.atStartOfDay(ZoneId.systemDefault()).format(DateTimeFormatter.ofPattern("yyyy-MM-dd"))));
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("Accept", "application/json");
-
-            if (conn.getResponseCode() != 200) {
-                throw new ServiceException("HTTP Error " + conn.getResponseCode());
+    /**
+     * Sends a request and parses its response while reading it, on the parser pool rather than on the threads of the
+     * {@link HttpClient}. The request counts as in flight until its response has been parsed.
+     */
+    private <T> CompletableFuture<T> send(HttpRequest request, ResponseParser<T> responseParser) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable sendRequest = () -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApplyAsync(response -> {
+                    try (InputStream body = response.body()) {
+                        return responseParser.parse(response);
+                    } catch (ServiceException e) {
+                        throw new CompletionException(e);
+                    } catch (IOException e) {
+                        throw new CompletionException(
+                                new ServiceException("IO Error (" + e.getMessage() + ")", e));
+                    }
+                }, parserPool)
+                .whenComplete((parsed, e) -> {
+                    onRequestCompleted();
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else {
+                        result.complete(parsed);
+                    }
+                });
+
+        synchronized (this) {
+            if (requestsInFlight >= maxConcurrentRequests) {
+                waitingRequests.add(sendRequest);
+                return result;
             }
+            requestsInFlight++;
+        }
 
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
-                String output;
-                while ((output = br.readLine()) != null) {
-                    result = result.append(output);
-                }
+        sendRequest.run();
+        return result;
+    }
+
+    private void onRequestCompleted() {
+        Runnable next;
+        synchronized (this) {
+            next = waitingRequests.poll();
+            if (next == null) {
+                requestsInFlight--;
             }
+        }
 
-            conn.disconnect();
-        } catch (MalformedURLException e) {
-            LOG.error("MalformedURLException", e);
-        } catch (IOException e) {
-            throw new ServiceException("IO Error");
+        // The permit of the completed request passes to the next one
+        if (next != null) {
+            next.run();
         }
+    }
 
-        return result.toString();
+    /**
+     * Parses a response of the remote API while reading it.
+     * <p>
+     * The response is an object with a {@code status} ({@code OK} or {@code KO}), a {@code message} and the
+     * {@code results}, an object whose fields are the times in ISO-8601 format (or {@code null} when not applicable).
+     * Times ending with {@code Z} are converted to UTC.
+     */
+    static SunsetSunriseTimes parseResult(InputStream inputStream) throws ServiceException {
+        SunsetSunriseTimes times = new SunsetSunriseTimes();
+        parseResponse(inputStream, parser -> parseTimes(parser, times));
+        return times;
     }
 
-    public static class APIResponse {
-        private String status;
-        private String message;
-        private Map<String, LocalDateTime> results;
+    /**
+     * Parses a response of the batch endpoint of the remote API while reading it.
+     * <p>
+     * The response is like the one of {@link #parseResult}, but its {@code results} are an array with the times of
+     * each query, in order.
+     *
+     * @param expectedResults the number of queries in the batch.
+     */
+    static List<SunsetSunriseTimes> parseBatchResult(InputStream inputStream, int expectedResults)
+            throws ServiceException {
+        List<SunsetSunriseTimes> results = new ArrayList<>(expectedResults);
+        parseResponse(inputStream, parser -> {
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                SunsetSunriseTimes times = new SunsetSunriseTimes();
+                parseTimes(parser, times);
+                results.add(times);
+            }
+        });
 
-        public String getStatus() {
-            return status;
+        if (results.size() != expectedResults) {
+            throw new ServiceException("Internal service error (" + results.size() + " results for " +
+                    expectedResults + " queries)");
         }
+        return results;
+    }
 
-        public void setStatus(String status) {
-            this.status = status;
+    private static void parseResponse(InputStream inputStream, ResultsParser resultsParser)
+            throws ServiceException {
+        String status = null;
+        String message = null;
+
+        try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new ServiceException("Internal service error (response is not a JSON object)");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+
+                switch (field) {
+                    case "status":
+                        status = parser.getValueAsString();
+                        break;
+                    case "message":
+                        message = parser.getValueAsString();
+                        break;
+                    case "results":
+                        resultsParser.parse(parser);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        } catch (IOException | DateTimeParseException e) {
+            throw new ServiceException("Internal service error (" + e.getMessage() + ")", e);
+        }
+
+        if (!"OK".equals(status)) {
+            throw new ServiceException("Remote service error: " + message);
         }
+    }
 
-        public String getMessage() {
-            return message;
+    private static void parseTimes(JsonParser parser, SunsetSunriseTimes times) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
         }
 
-        public void setMessage(String message) {
-            this.message = message;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            SunEvent event = SunEvent.fromInternalName(parser.getCurrentName());
+            if (parser.nextToken() == JsonToken.VALUE_STRING && event != null) {
+                times.putEpochSecond(event, parseEpochSecond(parser.getText()));
+            } else {
+                parser.skipChildren();
+            }
         }
+    }
 
-        public Map<String, LocalDateTime> getResults() {
-            return results;
+    private static long parseEpochSecond(String time) {
+        if (time.endsWith("Z")) {
+            return Instant.parse(time).getEpochSecond();
         }
+        return LocalDateTime.parse(time).toEpochSecond(ZoneOffset.UTC);
+    }
 
-        public void setResults(Map<String, LocalDateTime> results) {
-            this.results = results;
+    private static byte[] writeBatch(List<SunsetSunriseQuery> queries) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(body)) {
+            generator.writeStartArray();
+            for (SunsetSunriseQuery query : queries) {
+                generator.writeStartObject();
+                generator.writeNumberField("lat", query.getCoordinates().getLatitude());
+                generator.writeNumberField("lng", query.getCoordinates().getLongitude());
+                generator.writeStringField("date", query.getDate().toString());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
         }
+        return body.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface ResponseParser<T> {
+        /**
+         * @return the parsed response, or {@code null} if there is nothing to parse.
+         */
+        T parse(HttpResponse<InputStream> response) throws ServiceException;
+    }
+
+    @FunctionalInterface
+    private interface ResultsParser {
+        void parse(JsonParser parser) throws IOException;
     }
 }
@@ -2,32 +2,64 @@ const SunCalc = require('suncalc');
 const express = require('express');
 const app = express();
 const port = process.argv[2] || 8500;
+const maxBatchSize = 1000;
 
 app.use(function (request, response, next) {
     log(`Incoming request: ${request.method} ${request.url}`);
     next();
 });
 
-app.get('/json/:lat/:lng/:date', (request, response) => {
-    let res = {
-        status: "KO",
-        message: "",
-        results: {}
-    };
+app.use(express.json({limit: '1mb'}));
 
+app.get('/json/:lat/:lng/:date', (request, response) => {
     if (request.params.lat === undefined || request.params.lng === undefined || request.params.date === undefined) {
         return error(response, "Not all request params specified.");
     }
 
-    let latitude = Number(request.params.lat);
-    let longitude = Number(request.params.lng);
-    if (isNaN(latitude) || isNaN(longitude)) {
-        return error(response, "Latitude or Longitude are not valid numbers.");
+    let times = getTimes(request.params.lat, request.params.lng, request.params.date);
+    if (typeof times === "string") {
+        return error(response, times);
+    }
+
+    success(response, times);
+});
+
+// Body: [{"lat": ..., "lng": ..., "date": "yyyy-mm-dd"}, ...]. Results are in the same order as the queries.
+app.post('/json/batch', (request, response) => {
+    let queries = request.body;
+    if (!Array.isArray(queries)) {
+        return error(response, "Request body must be an array of queries.");
+    }
+    if (queries.length > maxBatchSize) {
+        return error(response, `At most ${maxBatchSize} queries per batch.`);
+    }
+
+    let results = [];
+    for (let i = 0; i < queries.length; i++) {
+        let query = queries[i] || {};
+        let times = getTimes(query.lat, query.lng, query.date);
+        if (typeof times === "string") {
+            return error(response, `Query ${i}: ${times}`);
+        }
+        results.push(times);
+    }
+
+    success(response, results);
+});
+
+/**
+ * Returns the times for the given coordinates and date, or an error message if they are not valid.
+ */
+function getTimes(lat, lng, date) {
+    let latitude = Number(lat);
+    let longitude = Number(lng);
+    if (lat === undefined || lng === undefined || isNaN(latitude) || isNaN(longitude)) {
+        return "Latitude or Longitude are not valid numbers.";
     }
 
-    let theDate = new Date(request.params.date);
-    if (theDate.toString() === "Invalid Date") {
-        return error(response, "Invalid date. Please specify a date in valid ISO format.");
+    let theDate = new Date(date);
+    if (date === undefined || theDate.toString() === "Invalid Date") {
+        return "Invalid date. Please specify a date in valid ISO format.";
     }
 
     let resultsSun = SunCalc.getTimes(theDate, latitude, longitude);
@@ -38,8 +70,8 @@ app.get('/json/:lat/:lng/:date', (request, response) => {
         moonSet: tmpResultsMoon.set || null
     };
 
-    success(response, {...resultsSun, ...resultsMoon});
-});
+    return {...resultsSun, ...resultsMoon};
+}
 
 app.listen(port, (err) => {
     if (err) {
@@ -4,6 +4,7 @@ import com.simpleplus.telegram.bots.components.*;
 import com.simpleplus.telegram.bots.mocks.PersistenceManagerWithTestDB;
 import com.simpleplus.telegram.bots.mocks.SunriseSunsetBotMock;
 import com.simpleplus.telegram.bots.mocks.SunriseSunsetServiceMock;
+import com.simpleplus.telegram.bots.mocks.UpdateDispatcherMock;
 import com.simpleplus.telegram.bots.services.SunsetSunriseService;
 
 public class MainTest {
@@ -20,6 +21,8 @@ public class MainTest {
         context.addBean(AdminCommandHandler.class);
         context.addBean(PropertiesManager.class);
         context.addBean(UserAlertsManager.class);
+        context.addBean(UpdateDispatcher.class, new UpdateDispatcherMock());
+        context.addBean(OutboundSender.class);
         context.initContext();
     }
 }
\ No newline at end of file
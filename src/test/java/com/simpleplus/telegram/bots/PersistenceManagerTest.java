@@ -4,16 +4,33 @@ package com.simpleplus.telegram.bots;
 import com.simpleplus.telegram.bots.components.BotContext;
 import com.simpleplus.telegram.bots.components.PersistenceManager;
 import com.simpleplus.telegram.bots.components.PropertiesManager;
+import com.simpleplus.telegram.bots.datamodel.ChatSchedule;
 import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.PendingAlert;
+import com.simpleplus.telegram.bots.datamodel.SavedTimes;
 import com.simpleplus.telegram.bots.datamodel.Step;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseTimes;
+import com.simpleplus.telegram.bots.datamodel.TimeType;
+import com.simpleplus.telegram.bots.datamodel.UserAlert;
 import com.simpleplus.telegram.bots.datamodel.UserState;
+import com.simpleplus.telegram.bots.mocks.PersistenceManagerWithTestDB;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import static org.junit.Assert.assertNull;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class PersistenceManagerTest {
     private PersistenceManager persistenceManager;
@@ -27,6 +44,11 @@ public class PersistenceManagerTest {
         persistenceManager = (PersistenceManager) BotContext.getDefaultContext().getBean(PersistenceManager.class);
     }
 
+    @After
+    public void cleanup() {
+        ((PersistenceManagerWithTestDB) persistenceManager).cleanup();
+    }
+
     @Test
     public void setAndGetWork() throws Exception {
         UserState userState = new UserState(new Coordinates(1.1F, 2.2F), Step.NEW_CHAT, false);
@@ -54,4 +76,256 @@ public class PersistenceManagerTest {
         assertTrue(!result.isEmpty());
         assertTrue(result.size() != 1);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void userStatesAreWrittenBehind() throws Exception {
+        PersistenceManager otherPersistenceManager = new PersistenceManagerWithTestDB();
+        otherPersistenceManager.init();
+
+        UserState userState = new UserState(new Coordinates(1.1F, 2.2F), Step.RUNNING, false);
+        persistenceManager.setUserState(97, userState);
+        assertNull(otherPersistenceManager.getUserState(97));
+
+        persistenceManager.flush();
+        assertEquals(userState, otherPersistenceManager.getUserState(97));
+    }
+
+    @Test
+    public void userStatesAreCopied() throws Exception {
+        UserState userState = new UserState(new Coordinates(1.1F, 2.2F), Step.RUNNING, false);
+        persistenceManager.setUserState(96, userState);
+        userState.setStep(Step.STOPPED);
+        userState.getCoordinates().setLatitude(3.3);
+
+        UserState gotUserState = persistenceManager.getUserState(96);
+        assertEquals(Step.RUNNING, gotUserState.getStep());
+        assertEquals(1.1F, gotUserState.getCoordinates().getLatitude(), 0);
+
+        gotUserState.setStep(Step.STOPPED);
+        assertEquals(Step.RUNNING, persistenceManager.getUserState(96).getStep());
+    }
+
+    @Test
+    public void flushedUserStatesAreUpdated() throws Exception {
+        PersistenceManager otherPersistenceManager = new PersistenceManagerWithTestDB();
+        otherPersistenceManager.init();
+
+        persistenceManager.setUserState(95, new UserState(new Coordinates(1.1F, 2.2F), Step.RUNNING, false));
+        persistenceManager.flush();
+
+        UserState userState = new UserState(new Coordinates(3.3F, 4.4F), Step.STOPPED, true);
+        persistenceManager.setUserState(95, userState);
+        persistenceManager.flush();
+        assertEquals(userState, otherPersistenceManager.getUserState(95));
+    }
+
+    @Test
+    public void userAlertsWithDelayAreDeleted() throws Exception {
+        persistenceManager.setUserState(94, new UserState(new Coordinates(1.1F, 2.2F), Step.RUNNING, false));
+        assertTrue(persistenceManager.addUserAlert(new UserAlert(94, TimeType.SUNSET, 10)));
+        assertTrue(persistenceManager.addUserAlert(new UserAlert(94, TimeType.SUNRISE, 10)));
+        assertTrue(persistenceManager.addUserAlert(new UserAlert(94, TimeType.SUNRISE, 20)));
+        assertFalse(persistenceManager.addUserAlert(new UserAlert(94, TimeType.SUNRISE, 20)));
+
+        assertEquals(2, persistenceManager.deleteUserAlertsWithDelay(10));
+        Set<UserAlert> userAlerts = persistenceManager.getUserAlerts(94);
+        assertEquals(1, userAlerts.size());
+        assertEquals(20, userAlerts.iterator().next().getDelay());
+    }
+
+    @Test
+    public void userAlertEditedToItsOwnValuesIsKept() throws Exception {
+        persistenceManager.setUserState(92, new UserState(new Coordinates(1.1F, 2.2F), Step.RUNNING, false));
+        assertTrue(persistenceManager.addUserAlert(new UserAlert(92, TimeType.SUNSET, 10)));
+        assertTrue(persistenceManager.addUserAlert(new UserAlert(92, TimeType.SUNRISE, 0)));
+        UserAlert userAlert = persistenceManager.getUserAlerts(92).stream()
+                .filter(alert -> alert.getTimeType() == TimeType.SUNSET)
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+
+        assertTrue(persistenceManager.editUserAlert(userAlert));
+        assertTrue(persistenceManager.editUserAlert(userAlert));
+        assertEquals(2, persistenceManager.getUserAlerts(92).size());
+        assertTrue(persistenceManager.getUserAlerts(92).stream().anyMatch(alert -> alert.getId() == userAlert.getId()
+                && alert.equalsNoId(userAlert)));
+
+        // Editing to the values of another alert still removes the edited one
+        userAlert.setTimeType(TimeType.SUNRISE);
+        userAlert.setDelay(0);
+        assertFalse(persistenceManager.editUserAlert(userAlert));
+        assertEquals(1, persistenceManager.getUserAlerts(92).size());
+    }
+
+    @Test
+    public void forEachUserStateFiltersAndPages() throws Exception {
+        persistenceManager.setUserState(-5, new UserState(new Coordinates(1.1F, 2.2F), Step.RUNNING, false));
+        persistenceManager.setUserState(3, new UserState(new Coordinates(1.1F, 2.2F), Step.RUNNING, true));
+        persistenceManager.setUserState(4, new UserState(new Coordinates(1.1F, 2.2F), Step.EXPIRED, true));
+        persistenceManager.setUserState(7, new UserState(new Coordinates(1.1F, 2.2F), Step.STOPPED, false));
+        persistenceManager.setUserState(9, new UserState(new Coordinates(3.3F, 4.4F), Step.RUNNING, false));
+
+        List<Long> chatIds = new ArrayList<>();
+        persistenceManager.forEachUserState(EnumSet.of(Step.RUNNING, Step.STOPPED), false,
+                (chatId, userState) -> chatIds.add(chatId));
+        assertEquals(Arrays.asList(-5L, 3L, 7L, 9L), chatIds);
+
+        chatIds.clear();
+        persistenceManager.forEachUserState(EnumSet.of(Step.RUNNING, Step.EXPIRED), true,
+                (chatId, userState) -> chatIds.add(chatId));
+        assertEquals(Arrays.asList(3L, 4L), chatIds);
+
+        Map<Long, UserState> userStates = persistenceManager.getUserStatesMap();
+        assertEquals(5, userStates.size());
+        assertEquals(new UserState(new Coordinates(3.3F, 4.4F), Step.RUNNING, false), userStates.get(9L));
+    }
+
+    @Test
+    public void chatSchedulesHaveTheirAlerts() throws Exception {
+        persistenceManager.setUserState(3, new UserState(new Coordinates(1.1F, 2.2F), Step.RUNNING, false));
+        persistenceManager.setUserState(4, new UserState(new Coordinates(1.1F, 2.2F), Step.RUNNING, false));
+        persistenceManager.setUserState(5, new UserState(new Coordinates(1.1F, 2.2F), Step.STOPPED, false));
+        persistenceManager.setUserState(6, new UserState(new Coordinates(3.3F, 4.4F), Step.RUNNING, false));
+        persistenceManager.addUserAlert(new UserAlert(3, TimeType.SUNSET, 0));
+        persistenceManager.addUserAlert(new UserAlert(3, TimeType.SUNRISE, 0));
+        persistenceManager.addUserAlert(new UserAlert(5, TimeType.SUNSET, 0));
+        persistenceManager.addUserAlert(new UserAlert(6, TimeType.SUNSET, 10));
+
+        List<ChatSchedule> chatSchedules = new ArrayList<>();
+        persistenceManager.forEachChatSchedule(EnumSet.of(Step.RUNNING), chatSchedules::add);
+
+        assertEquals(3, chatSchedules.size());
+        assertEquals(2, chatSchedules.get(0).getUserAlerts().size());
+        assertTrue(chatSchedules.get(1).getUserAlerts().isEmpty());
+        assertEquals(6, chatSchedules.get(2).getChatId());
+        assertEquals(new Coordinates(3.3F, 4.4F), chatSchedules.get(2).getUserState().getCoordinates());
+        assertEquals(10, chatSchedules.get(2).getUserAlerts().iterator().next().getDelay());
+    }
+
+    @Test
+    public void chatSchedulesOfALongitudeBand() throws Exception {
+        persistenceManager.setUserState(3, new UserState(new Coordinates(45.46, 9.19), Step.RUNNING, false));
+        persistenceManager.setUserState(4, new UserState(new Coordinates(45.46, 9.19), Step.RUNNING, false));
+        persistenceManager.setUserState(5, new UserState(new Coordinates(-33.87, 151.21), Step.RUNNING, false));
+        persistenceManager.setUserState(6, new UserState(new Coordinates(-14.28, -178.1), Step.RUNNING, false));
+        persistenceManager.flush();
+        // Moved to another band after being saved
+        persistenceManager.setUserState(4, new UserState(new Coordinates(-33.87, 151.21), Step.RUNNING, false));
+
+        List<ChatSchedule> chatSchedules = new ArrayList<>();
+        persistenceManager.forEachChatSchedule(EnumSet.of(Step.RUNNING), 10, chatSchedules::add);
+        assertEquals(2, chatSchedules.size());
+        assertEquals(4, chatSchedules.get(0).getChatId());
+        assertEquals(5, chatSchedules.get(1).getChatId());
+
+        chatSchedules.clear();
+        persistenceManager.forEachChatSchedule(EnumSet.of(Step.RUNNING), 12, chatSchedules::add);
+        assertEquals(1, chatSchedules.size());
+        assertEquals(6, chatSchedules.get(0).getChatId());
+    }
+
+    @Test
+    public void savedTimesAreReplacedAndDeleted() throws Exception {
+        persistenceManager.setUserState(7, new UserState(new Coordinates(1.1F, 2.2F), Step.RUNNING, false));
+        LocalDate today = LocalDate.of(2021, 6, 21);
+        SunsetSunriseTimes times = new SunsetSunriseTimes();
+        times.putTime("sunrise", LocalDateTime.of(2021, 6, 21, 3, 34, 12));
+        times.putTime("sunset", LocalDateTime.of(2021, 6, 21, 19, 12));
+
+        persistenceManager.saveTimes(Arrays.asList(new SavedTimes(7, today.minusDays(1), 1, new SunsetSunriseTimes()),
+                new SavedTimes(7, today, 1, new SunsetSunriseTimes())));
+        persistenceManager.saveTimes(Arrays.asList(new SavedTimes(7, today, 2, times),
+                new SavedTimes(7, today.plusDays(1), 2, times)));
+        assertEquals(3, persistenceManager.getSavedTimes(7).size());
+
+        assertEquals(1, persistenceManager.deleteSavedTimesBefore(today));
+        Map<LocalDate, SavedTimes> savedTimes = persistenceManager.getSavedTimes(7);
+        assertEquals(2, savedTimes.size());
+        assertEquals(2, savedTimes.get(today).getCoordinateCell());
+        assertEquals(times.asMap(), savedTimes.get(today).getTimes().asMap());
+
+        List<ChatSchedule> chatSchedules = new ArrayList<>();
+        persistenceManager.forEachChatSchedule(EnumSet.of(Step.RUNNING), chatSchedules::add);
+        assertEquals(savedTimes.keySet(), chatSchedules.get(0).getSavedTimes().keySet());
+    }
+
+    @Test
+    public void repeatedPendingAlertsAreSavedOnce() throws Exception {
+        long fireTime = System.currentTimeMillis() + 60 * 60 * 1000;
+        for (long chatId = 1; chatId <= 3; chatId++) {
+            persistenceManager.addPendingAlert(new PendingAlert(chatId, 10, fireTime, "Message", 0));
+        }
+        persistenceManager.flush();
+
+        // Chats are checked a page at a time
+        for (long chatId = 1; chatId <= 3; chatId++) {
+            persistenceManager.addPendingAlert(new PendingAlert(chatId, 10, fireTime, "Message", 0));
+            persistenceManager.addPendingAlert(new PendingAlert(chatId, 11, fireTime, "Message", 0));
+            persistenceManager.addPendingAlert(new PendingAlert(chatId, 11, fireTime, "Message", 0));
+        }
+        assertEquals(6, persistenceManager.getPendingAlerts(fireTime, fireTime + 1).size());
+    }
+
+    @Test
+    public void embeddedModeWorks() throws Exception {
+        System.setProperty("bot-database", "target/embedded-test-db");
+        BotContext.getDefaultContext().addBean(PropertiesManager.class, new PropertiesManager());
+        PersistenceManager embeddedPersistenceManager = new PersistenceManager();
+        try {
+            embeddedPersistenceManager.init();
+            UserState userState = new UserState(new Coordinates(1.1F, 2.2F), Step.RUNNING, false);
+            embeddedPersistenceManager.setUserState(93, userState);
+            embeddedPersistenceManager.flush();
+            assertEquals(1, embeddedPersistenceManager.getUserStatesMap().size());
+        } finally {
+            embeddedPersistenceManager.shutDown();
+            System.clearProperty("bot-database");
+        }
+    }
+
+    @Test
+    public void userStatesWithPendingWritesAreNotEvicted() throws Exception {
+        System.setProperty("bot-database", "target/user-states-cache-test-db");
+        System.setProperty("persistence-user-states-cache-size", "1");
+        System.setProperty("persistence-flush-millis", "3600000");
+        BotContext.getDefaultContext().addBean(PropertiesManager.class, new PropertiesManager());
+        PersistenceManager smallCachePersistenceManager = new PersistenceManager();
+        try {
+            smallCachePersistenceManager.init();
+            for (long chatId = 94; chatId <= 96; chatId++) {
+                smallCachePersistenceManager.setUserState(chatId,
+                        new UserState(new Coordinates(chatId, 0), Step.RUNNING, false));
+            }
+            for (long chatId = 94; chatId <= 96; chatId++) {
+                assertEquals(chatId, smallCachePersistenceManager.getUserState(chatId).getCoordinates().getLatitude(),
+                        1e-9);
+            }
+
+            // Once persisted, they are read again from the database
+            smallCachePersistenceManager.flush();
+            for (long chatId = 94; chatId <= 96; chatId++) {
+                assertEquals(chatId, smallCachePersistenceManager.getUserState(chatId).getCoordinates().getLatitude(),
+                        1e-9);
+            }
+        } finally {
+            smallCachePersistenceManager.shutDown();
+            System.clearProperty("bot-database");
+            System.clearProperty("persistence-user-states-cache-size");
+            System.clearProperty("persistence-flush-millis");
+        }
+    }
+
+    @Test
+    public void embeddedModeKeepsAbsolutePaths() throws Exception {
+        Path database = Paths.get("target", "embedded-absolute-test-db").toAbsolutePath();
+        System.setProperty("bot-database", database.toString());
+        BotContext.getDefaultContext().addBean(PropertiesManager.class, new PropertiesManager());
+        PersistenceManager embeddedPersistenceManager = new PersistenceManager();
+        try {
+            embeddedPersistenceManager.init();
+            assertTrue(Files.exists(Paths.get(database + ".mv.db")));
+        } finally {
+            embeddedPersistenceManager.shutDown();
+            System.clearProperty("bot-database");
+        }
+    }
+}
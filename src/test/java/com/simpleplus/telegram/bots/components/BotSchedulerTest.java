@@ -0,0 +1,139 @@
+package com.simpleplus.telegram.bots.components;
+
+import com.simpleplus.telegram.bots.MainTest;
+import com.simpleplus.telegram.bots.mocks.PersistenceManagerWithTestDB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static com.simpleplus.telegram.bots.components.BotScheduler.ScheduleResult.*;
+import static org.junit.Assert.*;
+
+public class BotSchedulerTest {
+    private BotScheduler scheduler;
+    private PersistenceManager persistenceManager;
+    private Date baseTime;
+
+    @Before
+    public void init() {
+        MainTest.initDefaultBotContext();
+        scheduler = (BotScheduler) BotContext.getDefaultContext().getBean(BotScheduler.class);
+        persistenceManager = (PersistenceManager) BotContext.getDefaultContext().getBean(PersistenceManager.class);
+
+        // Start of a minute, five minutes from now: within the window held in memory
+        long fiveMinutesFromNow = System.currentTimeMillis() + 5 * 60 * 1000;
+        baseTime = new Date(fiveMinutesFromNow - fiveMinutesFromNow % (60 * 1000));
+    }
+
+    @After
+    public void cleanup() {
+        scheduler.shutDown();
+        ((PersistenceManagerWithTestDB) persistenceManager).cleanup();
+    }
+
+    @Test
+    public void messagesInTheSameMinuteAreBatched() {
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, plusSeconds(10), "Message"));
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(2L, plusSeconds(10), "Message"));
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(3L, plusSeconds(50), "Message"));
+        assertEquals(1, scheduler.getPendingBatchesCount());
+
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, plusSeconds(70), "Message"));
+        assertEquals(2, scheduler.getPendingBatchesCount());
+    }
+
+    @Test
+    public void alreadyScheduledMessagesAreNotScheduledAgain() {
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, plusSeconds(10), "Message"));
+        assertEquals(NOT_TO_SCHEDULE, scheduler.scheduleMessage(1L, plusSeconds(10), "Message"));
+        assertEquals(NOT_SCHEDULED, scheduler.scheduleMessage(1L, new Date(0), "Message"));
+    }
+
+    @Test
+    public void emptyBatchesAreCancelled() {
+        scheduler.scheduleMessage(1L, plusSeconds(10), "Message");
+        scheduler.scheduleMessage(2L, plusSeconds(20), "Message");
+        scheduler.scheduleMessage(2L, plusSeconds(80), "Message");
+        assertEquals(2, scheduler.getPendingBatchesCount());
+
+        scheduler.cancelAllScheduledMessages(2L);
+        assertEquals(1, scheduler.getPendingBatchesCount());
+
+        scheduler.cancelAllScheduledMessages(1L);
+        assertEquals(0, scheduler.getPendingBatchesCount());
+
+        // A cancelled message can be scheduled again
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, plusSeconds(10), "Message"));
+        assertEquals(1, scheduler.getPendingBatchesCount());
+    }
+
+    @Test
+    public void pendingAlertsAreLoadedAfterARestart() {
+        assertFalse(scheduler.loadPendingAlerts());
+
+        Date soon = new Date(System.currentTimeMillis() + 10 * 60 * 1000);
+        scheduler.scheduleMessage(1L, soon, "Message");
+        scheduler.scheduleMessage(2L, soon, "Message");
+        scheduler.scheduleMessage(1L, new Date(soon.getTime() + 24 * 60 * 60 * 1000), "Message");
+        scheduler.cancelAllScheduledMessages(2L);
+        persistenceManager.flush();
+        scheduler.shutDown();
+
+        BotScheduler restartedScheduler = new BotScheduler();
+        restartedScheduler.init();
+        try {
+            assertTrue(restartedScheduler.loadPendingAlerts());
+            // Only the messages of the current window are loaded
+            assertEquals(1, restartedScheduler.getPendingBatchesCount());
+            assertEquals(NOT_TO_SCHEDULE, restartedScheduler.scheduleMessage(1L, soon, "Message"));
+            assertEquals(SCHEDULED, restartedScheduler.scheduleMessage(2L, soon, "Message"));
+        } finally {
+            restartedScheduler.shutDown();
+        }
+    }
+
+    @Test
+    public void messagesOutsideTheWindowAreNotHeldInMemory() {
+        Date later = new Date(System.currentTimeMillis() + 2 * 60 * 60 * 1000);
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, later, "Message"));
+        assertEquals(0, scheduler.getPendingBatchesCount());
+
+        // Repeated messages are dropped when persisted, whether the first one has already been persisted or not
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, later, "Message"));
+        persistenceManager.flush();
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, later, "Message"));
+        assertEquals(1, countPendingAlerts(later));
+
+        scheduler.cancelAllScheduledMessages(1L);
+        assertEquals(0, countPendingAlerts(later));
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, later, "Message"));
+        assertEquals(1, countPendingAlerts(later));
+    }
+
+    @Test
+    public void messagesOfAnAlertAreCancelledAlone() {
+        Date later = new Date(System.currentTimeMillis() + 2 * 60 * 60 * 1000);
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, 10L, plusSeconds(10), "Message"));
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, 11L, plusSeconds(10), "Other message"));
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, 10L, later, "Message"));
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, 11L, later, "Other message"));
+        assertEquals(2, countPendingAlerts(later));
+
+        scheduler.cancelScheduledMessages(1L, 10L);
+        assertEquals(1, countPendingAlerts(later));
+        assertEquals(1, scheduler.getPendingBatchesCount());
+        assertEquals(NOT_TO_SCHEDULE, scheduler.scheduleMessage(1L, 11L, plusSeconds(10), "Other message"));
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, 10L, plusSeconds(10), "Message"));
+        assertEquals(SCHEDULED, scheduler.scheduleMessage(1L, 10L, later, "Message"));
+    }
+
+    private int countPendingAlerts(Date time) {
+        return persistenceManager.getPendingAlerts(time.getTime(), time.getTime() + 1).size();
+    }
+
+    private Date plusSeconds(int seconds) {
+        return new Date(baseTime.getTime() + seconds * 1000L);
+    }
+}
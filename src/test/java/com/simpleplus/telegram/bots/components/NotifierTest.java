@@ -4,31 +4,189 @@ import com.google.common.collect.Sets;
 import com.simpleplus.telegram.bots.MainTest;
 import com.simpleplus.telegram.bots.datamodel.*;
 import com.simpleplus.telegram.bots.mocks.PersistenceManagerWithTestDB;
+import com.simpleplus.telegram.bots.mocks.SunriseSunsetServiceMock;
+import com.simpleplus.telegram.bots.services.SunsetSunriseService;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class NotifierTest {
     private Notifier notifier;
     private PersistenceManager persistenceManager;
+    private SunriseSunsetServiceMock sunsetSunriseService;
 
     @Before
     public void init() {
+        System.setProperty("notifier-retry-delay-seconds", "0");
         MainTest.initDefaultBotContext();
         notifier = (Notifier) BotContext.getDefaultContext().getBean(Notifier.class);
         persistenceManager = (PersistenceManager) BotContext.getDefaultContext().getBean(PersistenceManager.class);
+        sunsetSunriseService = (SunriseSunsetServiceMock)
+                BotContext.getDefaultContext().getBean(SunsetSunriseService.class);
     }
 
     @After
     public void cleanup() {
+        System.clearProperty("notifier-retry-delay-seconds");
+        notifier.shutDown();
         ((PersistenceManagerWithTestDB) persistenceManager).cleanup();
     }
 
+    @Test
+    public void installAllNotifiersProcessesRunningChats() throws Exception {
+        for (long chatId = 201L; chatId <= 205L; chatId++) {
+            persistenceManager.setUserState(chatId, new UserState(new Coordinates(0, 0), Step.RUNNING, false));
+        }
+        persistenceManager.setUserState(206L, new UserState(new Coordinates(0, 0), Step.STOPPED, false));
+
+        InstallReport report = notifier.installAllNotifiers().get(10, TimeUnit.SECONDS);
+
+        assertEquals(5, report.getChatsProcessed());
+        assertEquals(0, report.getFailures());
+        assertEquals(0, report.getRetries());
+        for (long chatId = 201L; chatId <= 205L; chatId++) {
+            assertEquals(2, persistenceManager.getUserAlerts(chatId).size());
+        }
+    }
+
+    @Test
+    public void installAllNotifiersWithFewerThreadsThanChats() throws Exception {
+        System.setProperty("notifier-installer-threads", "1");
+        Notifier singleThreadNotifier = new Notifier();
+        try {
+            singleThreadNotifier.init();
+            for (long chatId = 221L; chatId <= 225L; chatId++) {
+                persistenceManager.setUserState(chatId, new UserState(new Coordinates(0, 0), Step.RUNNING, false));
+            }
+
+            // The failing chat is retried without holding up the following ones
+            sunsetSunriseService.setFailures(1);
+            InstallReport report = singleThreadNotifier.installAllNotifiers().get(10, TimeUnit.SECONDS);
+
+            assertEquals(5, report.getChatsProcessed());
+            assertEquals(0, report.getFailures());
+            assertEquals(1, report.getRetries());
+            for (long chatId = 221L; chatId <= 225L; chatId++) {
+                assertEquals(2, persistenceManager.getUserAlerts(chatId).size());
+            }
+        } finally {
+            System.clearProperty("notifier-installer-threads");
+            singleThreadNotifier.shutDown();
+        }
+    }
+
+    @Test
+    public void installNotifiersOfBandProcessesItsChatsOnly() throws Exception {
+        persistenceManager.setUserState(211L, new UserState(new Coordinates(45.46, 9.19), Step.RUNNING, false));
+        persistenceManager.setUserState(212L, new UserState(new Coordinates(40.71, -74.01), Step.RUNNING, false));
+        persistenceManager.setUserState(213L, new UserState(new Coordinates(41.9, 12.5), Step.RUNNING, false));
+
+        InstallReport report = notifier.installNotifiersOfBand(1).get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, report.getChatsProcessed());
+        assertEquals(7, persistenceManager.getSavedTimes(211L).size());
+        assertTrue(persistenceManager.getSavedTimes(212L).isEmpty());
+    }
+
+    @Test
+    public void installMissedBandsAfterARestart() throws Exception {
+        persistenceManager.setUserState(214L, new UserState(new Coordinates(0, 0), Step.RUNNING, false));
+        persistenceManager.setUserState(215L, new UserState(new Coordinates(45.46, 9.19), Step.RUNNING, false));
+
+        // Every band has run just now but band 1, whose last run was before the restart
+        long now = System.currentTimeMillis();
+        long missedAt = now - TimeUnit.DAYS.toMillis(2);
+        List<Integer> otherBands = IntStream.range(0, Coordinates.LONGITUDE_BANDS)
+                .filter(band -> band != 1)
+                .boxed()
+                .collect(Collectors.toList());
+        persistenceManager.setBandsInstalledAt(otherBands, now);
+        persistenceManager.setBandsInstalledAt(Collections.singleton(1), missedAt);
+
+        notifier.installMissedBands().get(10, TimeUnit.SECONDS);
+
+        assertTrue(persistenceManager.getSavedTimes(214L).isEmpty());
+        assertEquals(7, persistenceManager.getSavedTimes(215L).size());
+        Map<Integer, Long> bandsInstalledAt = persistenceManager.getBandsInstalledAt();
+        assertEquals(now, (long) bandsInstalledAt.get(0));
+        assertTrue(bandsInstalledAt.get(1) > missedAt);
+    }
+
+    @Test
+    public void installAllNotifiersRetriesFailingChats() throws Exception {
+        persistenceManager.setUserState(301L, new UserState(new Coordinates(0, 0), Step.RUNNING, false));
+
+        // Every attempt asks for the 7 days of the horizon at once: the first one fails on every day, the second one
+        // on a single day
+        sunsetSunriseService.setFailures(8);
+        InstallReport report = notifier.installAllNotifiers().get(10, TimeUnit.SECONDS);
+        assertEquals(1, report.getChatsProcessed());
+        assertEquals(0, report.getFailures());
+        assertEquals(2, report.getRetries());
+        assertEquals(7, persistenceManager.getSavedTimes(301L).size());
+    }
+
+    @Test
+    public void savedTimesAreUsedWhileTheServiceIsDown() throws Exception {
+        persistenceManager.setUserState(302L, new UserState(new Coordinates(0, 0), Step.RUNNING, false));
+        notifier.installAllNotifiers().get(10, TimeUnit.SECONDS);
+
+        sunsetSunriseService.setFailures(Integer.MAX_VALUE);
+        InstallReport report = notifier.installAllNotifiers().get(10, TimeUnit.SECONDS);
+        assertEquals(0, report.getFailures());
+        assertEquals(0, report.getRetries());
+
+        // Times saved for another place cannot be used
+        persistenceManager.setUserState(302L, new UserState(new Coordinates(45.46, 9.19), Step.RUNNING, false));
+        report = notifier.installAllNotifiers().get(10, TimeUnit.SECONDS);
+        assertEquals(1, report.getFailures());
+        assertEquals(4, report.getRetries());
+        sunsetSunriseService.setFailures(0);
+    }
+
+    @Test
+    public void alertIsInstalledWithTheSavedTimes() throws Exception {
+        persistenceManager.setUserState(303L, new UserState(new Coordinates(0, 0), Step.RUNNING, false));
+        notifier.installAllNotifiers().get(10, TimeUnit.SECONDS);
+
+        // The service is not called at all
+        sunsetSunriseService.setFailures(Integer.MAX_VALUE);
+        UserAlert userAlert = new UserAlert(303L, TimeType.SUNSET_ANTICIPATION, -10);
+        assertTrue(persistenceManager.addUserAlert(userAlert));
+        assertTrue(notifier.tryToInstallNotifier(userAlert, 1));
+        sunsetSunriseService.setFailures(0);
+    }
+
+    @Test
+    public void timesOfASingleChatAreCached() throws Exception {
+        persistenceManager.setUserState(304L, new UserState(new Coordinates(0, 0), Step.RUNNING, false));
+        long hits = notifier.getTimesCacheStats().hitCount();
+
+        assertTrue(notifier.tryToInstallNotifiers(304L, 1));
+        assertTrue(notifier.tryToInstallNotifiers(304L, 1));
+        assertEquals(hits + 1, notifier.getTimesCacheStats().hitCount());
+
+        // Moved elsewhere
+        persistenceManager.setUserState(304L, new UserState(new Coordinates(45.46, 9.19), Step.RUNNING, false));
+        notifier.invalidateCachedTimes(304L);
+        long misses = notifier.getTimesCacheStats().missCount();
+        assertTrue(notifier.tryToInstallNotifiers(304L, 1));
+        assertEquals(misses + 1, notifier.getTimesCacheStats().missCount());
+        assertEquals(new Coordinates(45.46, 9.19).toCell(),
+                persistenceManager.getSavedTimes(304L).get(LocalDate.now()).getCoordinateCell());
+    }
+
     @Test
     public void installDefaultNotifiers() throws Exception {
         persistenceManager.setUserState(101L,
@@ -48,4 +206,19 @@ public class NotifierTest {
         assertEquals(0, userAlertsArr[1].getDelay());
         assertTrue(expectedTimes.containsAll(savedTimes));
     }
+
+    @Test
+    public void failedInstallIsRetriedInBackground() throws Exception {
+        persistenceManager.setUserState(102L,
+                new UserState(new Coordinates(0, 0), Step.RUNNING, false));
+
+        sunsetSunriseService.setFailures(2);
+        assertFalse(notifier.tryToInstallNotifiers(102L, 5));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (persistenceManager.getUserAlerts(102L).size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, persistenceManager.getUserAlerts(102L).size());
+    }
 }
\ No newline at end of file
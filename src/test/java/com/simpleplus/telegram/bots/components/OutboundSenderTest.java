@@ -0,0 +1,84 @@
+package com.simpleplus.telegram.bots.components;
+
+import com.simpleplus.telegram.bots.MainTest;
+import com.simpleplus.telegram.bots.components.sender.MessagePriority;
+import com.simpleplus.telegram.bots.mocks.SunriseSunsetBotMock;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundSenderTest {
+    private OutboundSender sender;
+    private SunriseSunsetBotMock bot;
+
+    @Before
+    public void init() {
+        MainTest.initDefaultBotContext();
+        sender = (OutboundSender) BotContext.getDefaultContext().getBean(OutboundSender.class);
+        bot = (SunriseSunsetBotMock) BotContext.getDefaultContext().getBean(SunriseSunsetBot.class);
+    }
+
+    @After
+    public void cleanup() {
+        sender.shutDown();
+    }
+
+    @Test
+    public void messagesToDifferentChatsAreSentTogether() throws Exception {
+        long start = System.currentTimeMillis();
+        for (long chatId = 1; chatId <= 20; chatId++) {
+            send(chatId, MessagePriority.ALERT);
+        }
+
+        awaitExecutedMethods(20);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(20, sender.getSent());
+    }
+
+    @Test
+    public void messagesToTheSameChatAreSpaced() throws Exception {
+        long start = System.currentTimeMillis();
+        send(1L, MessagePriority.INTERACTIVE);
+        send(1L, MessagePriority.INTERACTIVE);
+
+        awaitExecutedMethods(2);
+        assertTrue(System.currentTimeMillis() - start >= 900);
+    }
+
+    @Test
+    public void tooManyRequestsIsRetriedAfterRetryAfter() throws Exception {
+        bot.addExecuteFailure(new TelegramApiRequestException("Error sending message", new JSONObject(
+                "{\"ok\": false, \"error_code\": 429, \"description\": \"Too Many Requests: retry after 1\", " +
+                        "\"parameters\": {\"retry_after\": 1}}")));
+
+        long start = System.currentTimeMillis();
+        send(1L, MessagePriority.ALERT);
+
+        awaitExecutedMethods(1);
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        assertEquals(1, sender.getRateLimited());
+        assertEquals(1, sender.getSent());
+    }
+
+    private void send(long chatId, MessagePriority priority) {
+        SendMessage message = SendMessage.builder()
+                .chatId(String.valueOf(chatId))
+                .text("Message")
+                .build();
+        sender.send(message, chatId, message.getText(), priority);
+    }
+
+    private void awaitExecutedMethods(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bot.getExecutedMethods().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, bot.getExecutedMethods().size());
+    }
+}
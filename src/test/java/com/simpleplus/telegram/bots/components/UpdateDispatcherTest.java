@@ -0,0 +1,88 @@
+package com.simpleplus.telegram.bots.components;
+
+import com.simpleplus.telegram.bots.MainTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UpdateDispatcherTest {
+    private UpdateDispatcher dispatcher;
+
+    @Before
+    public void init() {
+        MainTest.initDefaultBotContext();
+        dispatcher = new UpdateDispatcher();
+        dispatcher.init();
+    }
+
+    @After
+    public void cleanup() {
+        dispatcher.shutDown();
+    }
+
+    @Test
+    public void updatesOfTheSameChatAreHandledInOrder() throws Exception {
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            int update = i;
+            dispatcher.dispatch(1L, () -> {
+                handled.add(update);
+                latch.countDown();
+            });
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) handled.get(i));
+        }
+    }
+
+    @Test
+    public void busyChatDoesNotBlockOtherChats() throws Exception {
+        CountDownLatch busyChatReleased = new CountDownLatch(1);
+        CountDownLatch otherChatHandled = new CountDownLatch(1);
+
+        dispatcher.dispatch(1L, () -> {
+            try {
+                busyChatReleased.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        dispatcher.dispatch(2L, otherChatHandled::countDown);
+
+        assertTrue(otherChatHandled.await(5, TimeUnit.SECONDS));
+        busyChatReleased.countDown();
+    }
+
+    @Test
+    public void statisticsAreRecorded() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        dispatcher.dispatch(1L, latch::countDown);
+        dispatcher.dispatch(2L, latch::countDown);
+        dispatcher.dispatch(3L, () -> {
+            latch.countDown();
+            throw new IllegalStateException("Handler failure");
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getStatistics().getHandled() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(3, dispatcher.getStatistics().getDispatched());
+        assertEquals(3, dispatcher.getStatistics().getHandled());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+}
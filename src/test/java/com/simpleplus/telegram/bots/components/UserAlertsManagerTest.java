@@ -113,6 +113,31 @@ public class UserAlertsManagerTest {
         assertEquals("Alert already exists.", ((SunriseSunsetBotMock) bot).getLastTextMessage().getText());
     }
 
+    @Test
+    public void removingTheLastAlertInstallsTheDefaults() {
+        long testChatId = 116L;
+        persistenceManager.setUserState(testChatId, new UserState(
+                new Coordinates(0, 0),
+                Step.RUNNING,
+                false
+        ));
+
+        userAlertsManager.handleCommand(testChatId, "add sunrise delay -5", 1L);
+        userAlertsManager.handleCommand(testChatId, "add sunset delay 0", 1L);
+        Set<UserAlert> userAlerts = persistenceManager.getUserAlerts(testChatId);
+        assertEquals(2, userAlerts.size());
+        UserAlert[] userAlertsArr = userAlerts.toArray(new UserAlert[2]);
+
+        userAlertsManager.handleCommand(testChatId, "remove " + userAlertsArr[0].getId(), 1L);
+        assertEquals(1, persistenceManager.getUserAlerts(testChatId).size());
+
+        userAlertsManager.handleCommand(testChatId, "remove " + userAlertsArr[1].getId(), 1L);
+        userAlerts = persistenceManager.getUserAlerts(testChatId);
+        assertEquals(2, userAlerts.size());
+        assertTrue(setContainsUserAlert(userAlerts, new UserAlert(testChatId, TimeType.SUNRISE, 0)));
+        assertTrue(setContainsUserAlert(userAlerts, new UserAlert(testChatId, TimeType.SUNSET, 0)));
+    }
+
     @Test
     public void addAlertsKeyboardIsSentCorrectly() throws Exception {
         long testChatId = 200L;
@@ -0,0 +1,108 @@
+package com.simpleplus.telegram.bots.components.persistence;
+
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SchemaMigratorTest {
+    private Connection connection;
+
+    @Before
+    public void setup() throws Exception {
+        connection = DriverManager.getConnection("jdbc:h2:mem:schema_migrator_test", "sa", "");
+
+        // The schema created by hbm2ddl, without any index
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE SavedChat (CHAT_ID BIGINT PRIMARY KEY, isAdmin BOOLEAN, " +
+                    "latitude DOUBLE NOT NULL, longitude DOUBLE NOT NULL, step VARCHAR(255))");
+            statement.execute("CREATE TABLE UserAlert (id BIGINT PRIMARY KEY, CHAT_ID BIGINT, delay BIGINT, " +
+                    "timeType VARCHAR(255))");
+            statement.execute("CREATE TABLE SavedTimes (id BIGINT PRIMARY KEY, CHAT_ID BIGINT, TIMES_DATE DATE, " +
+                    "COORDINATE_CELL BIGINT, TIMES VARCHAR(2048))");
+            statement.execute("CREATE TABLE PendingAlert (id BIGINT PRIMARY KEY, CHAT_ID BIGINT, ALERT_ID BIGINT, " +
+                    "FIRE_TIME BIGINT, MESSAGE VARCHAR(1024), SCHEDULED_AT BIGINT)");
+            statement.execute("INSERT INTO SavedChat VALUES (1, FALSE, 45.4642, 9.19, 'RUNNING')");
+            statement.execute("INSERT INTO SavedChat VALUES (2, FALSE, -33.8688, -151.2093, 'RUNNING')");
+            statement.execute("INSERT INTO PendingAlert VALUES (1, 1, 10, 1000, 'Message', 0)");
+            statement.execute("INSERT INTO PendingAlert VALUES (2, 1, 10, 1000, 'Message', 0)");
+            statement.execute("INSERT INTO PendingAlert VALUES (3, 1, 11, 1000, 'Message', 0)");
+        }
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void existingDatabaseIsMigrated() throws Exception {
+        assertEquals(SchemaMigrator.getLatestVersion(), new SchemaMigrator().migrate(connection));
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                     "SELECT COORDINATE_CELL, LONGITUDE_BAND FROM SavedChat ORDER BY CHAT_ID")) {
+            resultSet.next();
+            assertEquals(new Coordinates(45.4642, 9.19).toCell(), resultSet.getLong(1));
+            assertEquals(new Coordinates(45.4642, 9.19).toLongitudeBand(), resultSet.getInt(2));
+            resultSet.next();
+            assertEquals(new Coordinates(-33.8688, -151.2093).toCell(), resultSet.getLong(1));
+            assertEquals(new Coordinates(-33.8688, -151.2093).toLongitudeBand(), resultSet.getInt(2));
+        }
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES " +
+                     "WHERE INDEX_NAME LIKE 'IDX_%'")) {
+            resultSet.next();
+            assertEquals(7, resultSet.getInt(1));
+        }
+
+        // Repeated pending alerts are dropped before making them unique
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT id FROM PendingAlert ORDER BY id")) {
+            resultSet.next();
+            assertEquals(1, resultSet.getLong(1));
+            resultSet.next();
+            assertEquals(3, resultSet.getLong(1));
+            assertFalse(resultSet.next());
+        }
+    }
+
+    @Test
+    public void migrationsAreAppliedOnce() throws Exception {
+        SchemaMigrator migrator = new SchemaMigrator();
+        migrator.migrate(connection);
+        assertEquals(SchemaMigrator.getLatestVersion(), migrator.migrate(connection));
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM SCHEMA_VERSION")) {
+            resultSet.next();
+            assertEquals(SchemaMigrator.getLatestVersion(), resultSet.getInt(1));
+        }
+    }
+
+    @Test
+    public void cellsOfNearCoordinatesAreEqual() {
+        assertEquals(new Coordinates(45.461, 9.191).toCell(), new Coordinates(45.469, 9.199).toCell());
+        assertTrue(new Coordinates(45.461, 9.191).toCell() != new Coordinates(45.471, 9.191).toCell());
+        assertTrue(new Coordinates(45.461, 9.191).toCell() != new Coordinates(45.461, 9.201).toCell());
+    }
+
+    @Test
+    public void longitudeBandsAreCentredOnHours() {
+        assertEquals(0, new Coordinates(45, 7.4).toLongitudeBand());
+        assertEquals(1, new Coordinates(45, 7.5).toLongitudeBand());
+        assertEquals(23, new Coordinates(45, -7.6).toLongitudeBand());
+        assertEquals(12, new Coordinates(45, 180).toLongitudeBand());
+        assertEquals(12, new Coordinates(45, -180).toLongitudeBand());
+    }
+}
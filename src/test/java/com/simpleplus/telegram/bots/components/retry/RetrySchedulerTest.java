@@ -0,0 +1,92 @@
+package com.simpleplus.telegram.bots.components.retry;
+
+import com.simpleplus.telegram.bots.exceptions.ServiceException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RetrySchedulerTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void taskIsRetriedUntilItSucceeds() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler(executor, 10, 100);
+        AtomicInteger attempts = new AtomicInteger();
+
+        retryScheduler.submit("Test", attempt -> {
+            attempts.incrementAndGet();
+            if (attempt < 2) {
+                throw new ServiceException("Failure");
+            }
+        }, 5).get(2, TimeUnit.SECONDS);
+
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void lastExceptionIsReportedWhenAttemptsAreOver() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler(executor, 10, 100);
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            retryScheduler.retry("Test", attempt -> {
+                attempts.incrementAndGet();
+                throw new ServiceException("Failure " + attempt);
+            }, 3).get(2, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertEquals("Failure 2", e.getCause().getMessage());
+        }
+
+        // The first attempt was made by the caller
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void otherExceptionsAreNotRetried() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler(executor, 10, 100);
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            retryScheduler.submit("Test", attempt -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException();
+            }, 5).get(2, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void delaysGrowExponentiallyWithJitter() {
+        RetryScheduler retryScheduler = new RetryScheduler(executor, 1000, 10000);
+
+        assertEquals(0, retryScheduler.getDelayMillis(0));
+        for (int i = 0; i < 100; i++) {
+            assertBetween(500, 1000, retryScheduler.getDelayMillis(1));
+            assertBetween(1000, 2000, retryScheduler.getDelayMillis(2));
+            assertBetween(4000, 8000, retryScheduler.getDelayMillis(4));
+            assertBetween(5000, 10000, retryScheduler.getDelayMillis(5));
+            assertBetween(5000, 10000, retryScheduler.getDelayMillis(100));
+        }
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
@@ -0,0 +1,94 @@
+package com.simpleplus.telegram.bots.components.scheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class HashedWheelSchedulerEngineTest {
+    private static final long TICK_MILLIS = 20;
+    private static final int WHEEL_SIZE = 8;
+
+    private HashedWheelSchedulerEngine engine;
+
+    @Before
+    public void init() {
+        engine = new HashedWheelSchedulerEngine(TICK_MILLIS, WHEEL_SIZE, 2);
+    }
+
+    @After
+    public void cleanup() {
+        engine.shutDown();
+    }
+
+    @Test
+    public void taskIsRunNotBeforeItsTime() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicLong runAt = new AtomicLong();
+        Date time = new Date(System.currentTimeMillis() + 100);
+
+        engine.schedule(() -> {
+            runAt.set(System.currentTimeMillis());
+            latch.countDown();
+        }, time);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(runAt.get() >= time.getTime());
+        assertTrue(runAt.get() < time.getTime() + 10 * TICK_MILLIS);
+    }
+
+    @Test
+    public void taskBeyondOneWheelTurnIsNotRunEarly() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicLong runAt = new AtomicLong();
+        Date time = new Date(System.currentTimeMillis() + 3 * WHEEL_SIZE * TICK_MILLIS);
+
+        engine.schedule(() -> {
+            runAt.set(System.currentTimeMillis());
+            latch.countDown();
+        }, time);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(runAt.get() >= time.getTime());
+    }
+
+    @Test
+    public void cancelledTaskIsNotRun() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        Date time = new Date(System.currentTimeMillis() + 100);
+
+        ScheduledTask task = engine.schedule(runs::incrementAndGet, time);
+        engine.schedule(latch::countDown, new Date(time.getTime() + 2 * TICK_MILLIS));
+
+        assertTrue(task.cancel());
+        assertFalse(task.cancel());
+        assertTrue(task.isCancelled());
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void pastTaskIsRunAtNextTick() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        engine.schedule(latch::countDown, new Date(System.currentTimeMillis() - 1000));
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fixedRateTaskIsRunUntilCancelled() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        ScheduledTask task = engine.scheduleAtFixedRate(latch::countDown, new Date(), 2 * TICK_MILLIS);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(task.cancel());
+    }
+}
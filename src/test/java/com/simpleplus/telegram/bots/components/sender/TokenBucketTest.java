@@ -0,0 +1,43 @@
+package com.simpleplus.telegram.bots.components.sender;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenBucketTest {
+    @Test
+    public void burstIsLimitedByCapacity() {
+        TokenBucket bucket = new TokenBucket(3, 1, 0);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.getWaitMillis(0));
+            bucket.consume(0);
+        }
+        assertEquals(1000, bucket.getWaitMillis(0));
+    }
+
+    @Test
+    public void tokensAreRefilledOverTime() {
+        TokenBucket bucket = new TokenBucket(1, 2, 0);
+
+        bucket.consume(0);
+        assertEquals(500, bucket.getWaitMillis(0));
+        assertEquals(200, bucket.getWaitMillis(300));
+        assertEquals(0, bucket.getWaitMillis(500));
+
+        // Tokens never exceed the capacity
+        assertEquals(0, bucket.getWaitMillis(10000));
+        bucket.consume(10000);
+        assertEquals(500, bucket.getWaitMillis(10000));
+    }
+
+    @Test
+    public void pausedBucketGivesNoTokens() {
+        TokenBucket bucket = new TokenBucket(5, 5, 0);
+
+        bucket.pauseUntil(3000);
+        assertEquals(3000, bucket.getWaitMillis(0));
+        assertEquals(1000, bucket.getWaitMillis(2000));
+        assertEquals(0, bucket.getWaitMillis(3000));
+    }
+}
@@ -26,6 +26,8 @@ public class PersistenceManagerWithTestDB extends PersistenceManager {
 
     @Override
     public void init() {
+        // Small pages, so that tests go through more than one
+        pageSize = 2;
         createEMFactory();
     }
 
@@ -41,6 +43,7 @@ public class PersistenceManagerWithTestDB extends PersistenceManager {
 
     public void cleanup() {
         LOG.info("Going to cleanup test database.");
+        clearCache();
 
         EntityManager em = createEntityManager();
         EntityTransaction transaction = em.getTransaction();
@@ -56,6 +59,9 @@ public class PersistenceManagerWithTestDB extends PersistenceManager {
         for (SavedChat savedChat : results) {
             em.remove(savedChat);
         }
+        em.createQuery("DELETE FROM SavedTimes").executeUpdate();
+        em.createQuery("DELETE FROM PendingAlert").executeUpdate();
+        em.createQuery("DELETE FROM BandInstall").executeUpdate();
 
         transaction.commit();
         em.close();
@@ -1,14 +1,23 @@
 package com.simpleplus.telegram.bots.mocks;
 
 import com.simpleplus.telegram.bots.components.SunriseSunsetBot;
+import com.simpleplus.telegram.bots.components.sender.MessagePriority;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class SunriseSunsetBotMock extends SunriseSunsetBot {
-    private List<SendMessage> sentMessages = new ArrayList<>();
+    private List<SendMessage> sentMessages = Collections.synchronizedList(new ArrayList<>());
+    private List<BotApiMethod<?>> executedMethods = Collections.synchronizedList(new ArrayList<>());
+    private Queue<TelegramApiException> executeFailures = new ConcurrentLinkedQueue<>();
 
     @Override
     public void reply(SendMessage messageToSend) {
@@ -22,6 +31,11 @@ public class SunriseSunsetBotMock extends SunriseSunsetBot {
         sentMessages.add(sendMessage);
     }
 
+    @Override
+    public void reply(long chatId, String message, MessagePriority priority) {
+        reply(chatId, message);
+    }
+
     @Override
     public void reply(EditMessageText messageToSend) {
         SendMessage sendMessage = new SendMessage();
@@ -31,6 +45,32 @@ public class SunriseSunsetBotMock extends SunriseSunsetBot {
         sentMessages.add(sendMessage);
     }
 
+    @Override
+    public <T extends Serializable, Method extends BotApiMethod<T>> T execute(Method method)
+            throws TelegramApiException {
+        TelegramApiException failure = executeFailures.poll();
+        if (failure != null) {
+            throw failure;
+        }
+
+        executedMethods.add(method);
+        return null;
+    }
+
+    /**
+     * Gets the methods which reached Telegram (i.e. went through the {@code OutboundSender}).
+     */
+    public List<BotApiMethod<?>> getExecutedMethods() {
+        return executedMethods;
+    }
+
+    /**
+     * Makes the next call to {@code execute} throw the given exception.
+     */
+    public void addExecuteFailure(TelegramApiException failure) {
+        executeFailures.add(failure);
+    }
+
     public List<SendMessage> getSentMessages() {
         return sentMessages;
     }
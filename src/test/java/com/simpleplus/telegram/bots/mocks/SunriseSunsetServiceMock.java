@@ -8,15 +8,33 @@ import com.simpleplus.telegram.bots.services.SunsetSunriseService;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SunriseSunsetServiceMock implements SunsetSunriseService, BotBean {
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+
     @Override
     public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates, LocalDate localDate) throws ServiceException {
+        failIfRequested();
         return new SunsetSunriseTimes();
     }
 
     @Override
     public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates) throws ServiceException {
+        failIfRequested();
         return new SunsetSunriseTimes();
     }
+
+    /**
+     * Makes the next {@code failures} calls throw a {@link ServiceException}.
+     */
+    public void setFailures(int failures) {
+        failuresLeft.set(failures);
+    }
+
+    private void failIfRequested() throws ServiceException {
+        if (failuresLeft.getAndUpdate(failures -> Math.max(failures - 1, 0)) > 0) {
+            throw new ServiceException("Service not available (mock).");
+        }
+    }
 }
@@ -0,0 +1,21 @@
+package com.simpleplus.telegram.bots.mocks;
+
+import com.simpleplus.telegram.bots.components.UpdateDispatcher;
+
+/**
+ * Handles updates on the calling thread, so that tests can check their effects right after sending them.
+ */
+public class UpdateDispatcherMock extends UpdateDispatcher {
+    @Override
+    public void init() {
+    }
+
+    @Override
+    public void shutDown() {
+    }
+
+    @Override
+    public void dispatch(long chatId, Runnable handler) {
+        handler.run();
+    }
+}
@@ -0,0 +1,206 @@
+package com.simpleplus.telegram.bots.services.impl;
+
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseQuery;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseTimes;
+import com.simpleplus.telegram.bots.exceptions.ServiceException;
+import com.simpleplus.telegram.bots.services.SunsetSunriseService;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CachingSunsetSunriseServiceTest {
+    private static final LocalDate DATE = LocalDate.of(2021, 6, 21);
+
+    private final CountingService delegate = new CountingService();
+    private final CachingSunsetSunriseService service =
+            new CachingSunsetSunriseService(delegate, 0.01, 100, Duration.ofHours(1));
+
+    @Test
+    public void coordinatesInTheSameCellShareTheSameCall() throws Exception {
+        SunsetSunriseTimes first = service.getSunsetSunriseTimes(new Coordinates(41.90281, 12.49641), DATE);
+        SunsetSunriseTimes second = service.getSunsetSunriseTimes(new Coordinates(41.90749, 12.49012), DATE);
+
+        assertSame(first, second);
+        assertEquals(1, delegate.calls.size());
+        assertEquals(1, service.getStats().hitCount());
+        assertEquals(1, service.getStats().missCount());
+
+        // The delegate is queried at the center of the cell
+        assertEquals(41.905, delegate.calls.get(0).getLatitude(), 1e-9);
+        assertEquals(12.495, delegate.calls.get(0).getLongitude(), 1e-9);
+    }
+
+    @Test
+    public void differentCellsOrDatesAreDifferentEntries() throws Exception {
+        service.getSunsetSunriseTimes(new Coordinates(41.9028, 12.4964), DATE);
+        service.getSunsetSunriseTimes(new Coordinates(41.9128, 12.4964), DATE);
+        service.getSunsetSunriseTimes(new Coordinates(41.9028, 12.4964), DATE.plusDays(1));
+        service.getSunsetSunriseTimes(new Coordinates(-41.9028, -12.4964), DATE);
+
+        assertEquals(4, delegate.calls.size());
+        assertEquals(0, service.getStats().hitCount());
+    }
+
+    @Test
+    public void sizeIsBounded() throws Exception {
+        CachingSunsetSunriseService smallService =
+                new CachingSunsetSunriseService(delegate, 0.01, 2, Duration.ofHours(1));
+
+        for (int i = 0; i < 5; i++) {
+            smallService.getSunsetSunriseTimes(new Coordinates(i, 0), DATE);
+        }
+
+        assertEquals(3, smallService.getStats().evictionCount());
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception {
+        delegate.failing = true;
+        try {
+            service.getSunsetSunriseTimes(new Coordinates(41.9028, 12.4964), DATE);
+            fail("ServiceException expected");
+        } catch (ServiceException e) {
+            assertEquals("Service down", e.getMessage());
+        }
+
+        delegate.failing = false;
+        assertNotNull(service.getSunsetSunriseTimes(new Coordinates(41.9028, 12.4964), DATE));
+        assertEquals(2, delegate.calls.size());
+    }
+
+    @Test
+    public void pendingAsyncCallsAreShared() throws Exception {
+        delegate.pending = new CompletableFuture<>();
+        CompletableFuture<SunsetSunriseTimes> first =
+                service.getSunsetSunriseTimesAsync(new Coordinates(41.90281, 12.49641), DATE);
+        CompletableFuture<SunsetSunriseTimes> second =
+                service.getSunsetSunriseTimesAsync(new Coordinates(41.90749, 12.49012), DATE);
+        assertFalse(first.isDone());
+
+        SunsetSunriseTimes times = new SunsetSunriseTimes();
+        delegate.pending.complete(times);
+        assertSame(times, first.get());
+        assertSame(times, second.get());
+        assertSame(times, service.getSunsetSunriseTimesAsync(new Coordinates(41.9, 12.49), DATE).get());
+        assertEquals(1, delegate.calls.size());
+    }
+
+    @Test
+    public void callsThrowingSynchronouslyAreNotLeftPending() throws Exception {
+        delegate.throwing = true;
+        try {
+            service.getSunsetSunriseTimes(Arrays.asList(
+                    new SunsetSunriseQuery(new Coordinates(41.90281, 12.49641), DATE)));
+            fail("ServiceException expected");
+        } catch (ServiceException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        CompletableFuture<SunsetSunriseTimes> failed =
+                service.getSunsetSunriseTimesAsync(new Coordinates(41.90281, 12.49641), DATE);
+        assertTrue(failed.isCompletedExceptionally());
+
+        delegate.throwing = false;
+        assertNotNull(service.getSunsetSunriseTimesAsync(new Coordinates(41.90281, 12.49641), DATE)
+                .get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void batchMissesAreAskedInOneBatch() throws Exception {
+        SunsetSunriseTimes cached = service.getSunsetSunriseTimes(new Coordinates(41.90281, 12.49641), DATE);
+
+        List<SunsetSunriseTimes> times = service.getSunsetSunriseTimes(Arrays.asList(
+                new SunsetSunriseQuery(new Coordinates(41.90749, 12.49012), DATE),
+                new SunsetSunriseQuery(new Coordinates(45.46427, 9.18951), DATE),
+                new SunsetSunriseQuery(new Coordinates(45.46, 9.18), DATE),
+                new SunsetSunriseQuery(new Coordinates(41.90281, 12.49641), DATE.plusDays(1))));
+
+        assertEquals(4, times.size());
+        assertSame(cached, times.get(0));
+        assertSame(times.get(1), times.get(2));
+        // Two misses, in a single batch
+        assertEquals(Arrays.asList(2), delegate.batches);
+        assertEquals(3, delegate.calls.size());
+    }
+
+    @Test
+    public void batchesWithMissingTimesFailEveryQuery() throws Exception {
+        delegate.shortBatches = true;
+        CompletableFuture<List<SunsetSunriseTimes>> failed = service.getSunsetSunriseTimesAsync(Arrays.asList(
+                new SunsetSunriseQuery(new Coordinates(41.90281, 12.49641), DATE),
+                new SunsetSunriseQuery(new Coordinates(45.46427, 9.18951), DATE)));
+        try {
+            failed.get(1, TimeUnit.SECONDS);
+            fail("ServiceException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceException);
+        }
+
+        // Neither query is left pending
+        delegate.shortBatches = false;
+        assertNotNull(service.getSunsetSunriseTimesAsync(new Coordinates(45.46427, 9.18951), DATE)
+                .get(1, TimeUnit.SECONDS));
+        assertEquals(2, service.getSunsetSunriseTimesAsync(Arrays.asList(
+                new SunsetSunriseQuery(new Coordinates(41.90281, 12.49641), DATE),
+                new SunsetSunriseQuery(new Coordinates(45.46427, 9.18951), DATE))).get(1, TimeUnit.SECONDS).size());
+    }
+
+    private static class CountingService implements SunsetSunriseService {
+        private final List<Coordinates> calls = new ArrayList<>();
+        private final List<Integer> batches = new ArrayList<>();
+        private boolean failing;
+        private boolean throwing;
+        private boolean shortBatches;
+        private CompletableFuture<SunsetSunriseTimes> pending;
+
+        @Override
+        public CompletableFuture<SunsetSunriseTimes> getSunsetSunriseTimesAsync(Coordinates coordinates,
+                                                                               LocalDate localDate) {
+            if (throwing) {
+                throw new IllegalArgumentException("Bad URL");
+            }
+            if (pending == null) {
+                return SunsetSunriseService.super.getSunsetSunriseTimesAsync(coordinates, localDate);
+            }
+            calls.add(coordinates);
+            return pending;
+        }
+
+        @Override
+        public CompletableFuture<List<SunsetSunriseTimes>> getSunsetSunriseTimesAsync(
+                List<SunsetSunriseQuery> queries) {
+            if (throwing) {
+                throw new IllegalArgumentException("Bad URL");
+            }
+            batches.add(queries.size());
+            if (shortBatches) {
+                return SunsetSunriseService.super.getSunsetSunriseTimesAsync(queries.subList(1, queries.size()));
+            }
+            return SunsetSunriseService.super.getSunsetSunriseTimesAsync(queries);
+        }
+
+        @Override
+        public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates, LocalDate localDate)
+                throws ServiceException {
+            calls.add(coordinates);
+            if (failing) {
+                throw new ServiceException("Service down");
+            }
+            return new SunsetSunriseTimes();
+        }
+
+        @Override
+        public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates) throws ServiceException {
+            return getSunsetSunriseTimes(coordinates, LocalDate.now());
+        }
+    }
+}
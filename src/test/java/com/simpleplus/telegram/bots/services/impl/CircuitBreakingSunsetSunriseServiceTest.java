@@ -0,0 +1,129 @@
+package com.simpleplus.telegram.bots.services.impl;
+
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseTimes;
+import com.simpleplus.telegram.bots.exceptions.ServiceException;
+import com.simpleplus.telegram.bots.services.SunsetSunriseService;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static com.simpleplus.telegram.bots.services.impl.CircuitBreakingSunsetSunriseService.State.*;
+import static org.junit.Assert.*;
+
+public class CircuitBreakingSunsetSunriseServiceTest {
+    private static final Coordinates COORDINATES = new Coordinates(41.9028, 12.4964);
+
+    private final FlakyService delegate = new FlakyService();
+    private final MutableClock clock = new MutableClock();
+    private final CircuitBreakingSunsetSunriseService service =
+            new CircuitBreakingSunsetSunriseService(delegate, 3, Duration.ofSeconds(60), clock);
+
+    @Test
+    public void circuitOpensAfterConsecutiveFailures() {
+        delegate.failing = true;
+        callAndExpectFailure();
+        callAndExpectFailure();
+        assertEquals(CLOSED, service.getState());
+        callAndExpectFailure();
+        assertEquals(OPEN, service.getState());
+
+        // Calls fail fast while the circuit is open
+        callAndExpectFailure();
+        assertEquals(3, delegate.calls);
+    }
+
+    @Test
+    public void successResetsFailureCount() throws Exception {
+        delegate.failing = true;
+        callAndExpectFailure();
+        callAndExpectFailure();
+        delegate.failing = false;
+        service.getSunsetSunriseTimes(COORDINATES, LocalDate.now());
+        delegate.failing = true;
+        callAndExpectFailure();
+        callAndExpectFailure();
+
+        assertEquals(CLOSED, service.getState());
+    }
+
+    @Test
+    public void trialCallClosesOrReopensTheCircuit() throws Exception {
+        delegate.failing = true;
+        for (int i = 0; i < 3; i++) {
+            callAndExpectFailure();
+        }
+
+        // A failed trial call keeps the circuit open
+        clock.advance(Duration.ofSeconds(60));
+        callAndExpectFailure();
+        assertEquals(OPEN, service.getState());
+        assertEquals(4, delegate.calls);
+        clock.advance(Duration.ofSeconds(30));
+        callAndExpectFailure();
+        assertEquals(4, delegate.calls);
+
+        // A successful trial call closes it
+        clock.advance(Duration.ofSeconds(30));
+        delegate.failing = false;
+        assertNotNull(service.getSunsetSunriseTimes(COORDINATES, LocalDate.now()));
+        assertEquals(CLOSED, service.getState());
+    }
+
+    private void callAndExpectFailure() {
+        try {
+            service.getSunsetSunriseTimes(COORDINATES, LocalDate.now());
+            fail("ServiceException expected");
+        } catch (ServiceException e) {
+            // Expected
+        }
+    }
+
+    private static class FlakyService implements SunsetSunriseService {
+        private boolean failing;
+        private int calls;
+
+        @Override
+        public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates, LocalDate localDate)
+                throws ServiceException {
+            calls++;
+            if (failing) {
+                throw new ServiceException("Service down");
+            }
+            return new SunsetSunriseTimes();
+        }
+
+        @Override
+        public SunsetSunriseTimes getSunsetSunriseTimes(Coordinates coordinates) throws ServiceException {
+            return getSunsetSunriseTimes(coordinates, LocalDate.now());
+        }
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant instant = Instant.parse("2021-06-21T00:00:00Z");
+
+        private void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.simpleplus.telegram.bots.services.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.SunEvent;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseTimes;
+import com.simpleplus.telegram.bots.datamodel.TimeType;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the local calculator against the responses of the remote API stored in
+ * {@code src/test/resources/sunsetsunrise}.
+ * <p>
+ * Those responses were not recorded from a running API: they were generated with the SunCalc routines the API is built
+ * on, called as the API calls them ({@code SunCalc.getTimes(new Date(date), lat, lng)}), and are in the API's format.
+ * They show that the port is faithful, not that the times are right: for that, sunrise, solar noon and sunset are also
+ * checked against the NOAA solar equations, an independent algorithm.
+ */
+public class SunsetSunriseLocalCalculatorTest {
+    private static final Duration TOLERANCE = Duration.ofSeconds(1);
+    // SunCalc adds a fixed 0.0009 days (78 seconds) to the transit, the NOAA equations do not
+    private static final Duration NOAA_TOLERANCE = Duration.ofMinutes(2);
+    private static final String[] NOT_POLAR = {"rome-summer", "rome-winter", "new-york", "tokyo",
+            "null-island-equinox", "honolulu", "sydney"};
+
+    private final SunsetSunriseLocalCalculator calculator = new SunsetSunriseLocalCalculator();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void matchesRemoteApiAtMidLatitudes() throws Exception {
+        assertMatchesRemoteApi("rome-summer");
+        assertMatchesRemoteApi("rome-winter");
+        assertMatchesRemoteApi("new-york");
+        assertMatchesRemoteApi("tokyo");
+    }
+
+    @Test
+    public void matchesRemoteApiAtLowLatitudes() throws Exception {
+        assertMatchesRemoteApi("null-island-equinox");
+        assertMatchesRemoteApi("honolulu");
+    }
+
+    @Test
+    public void matchesRemoteApiInSouthernHemisphere() throws Exception {
+        assertMatchesRemoteApi("sydney");
+    }
+
+    @Test
+    public void matchesRemoteApiDuringPolarDayAndNight() throws Exception {
+        assertMatchesRemoteApi("tromso-polar-day");
+        assertMatchesRemoteApi("tromso-polar-night");
+
+        SunsetSunriseTimes polarDay = getRemoteApiResponse("tromso-polar-day").times;
+        assertNull(polarDay.getTime(TimeType.SUNRISE.getInternalName()));
+        assertNull(polarDay.getTime(TimeType.SUNSET.getInternalName()));
+        assertEquals(SunsetSunriseTimes.NOT_APPLICABLE, polarDay.getEpochSecond(SunEvent.SUNRISE));
+        assertEquals(SunsetSunriseTimes.NOT_APPLICABLE,
+                calculator.getSunsetSunriseTimes(new Coordinates(69.6492, 18.9553), LocalDate.of(2021, 6, 21))
+                        .getEpochSecond(TimeType.SUNSET.getSunEvent()));
+    }
+
+    @Test
+    public void computesAllTimeTypes() throws Exception {
+        SunsetSunriseTimes times = calculator.getSunsetSunriseTimes(new Coordinates(41.9028, 12.4964),
+                LocalDate.of(2021, 6, 21));
+
+        for (TimeType timeType : TimeType.values()) {
+            if (timeType != TimeType.DEFAULT) {
+                assertNotNull(timeType.name(), times.getTime(timeType.getInternalName()));
+            }
+        }
+    }
+
+    @Test
+    public void agreesWithNoaaEquations() throws Exception {
+        for (String name : NOT_POLAR) {
+            RecordedResponse recorded = getRemoteApiResponse(name);
+            SunsetSunriseTimes actual = calculator.getSunsetSunriseTimes(recorded.coordinates, recorded.date);
+
+            // Like the remote API, at western longitudes the times are the ones of the local day before the date
+            LocalDateTime solarNoon = actual.getTime(SunEvent.SOLAR_NOON.getInternalName());
+            LocalDate localDate = solarNoon.plusSeconds((long) (recorded.coordinates.getLongitude() * 240))
+                    .toLocalDate();
+            LocalDateTime[] expected = getNoaaTimes(recorded.coordinates, localDate);
+
+            String[] timeNames = {SunEvent.SUNRISE.getInternalName(), SunEvent.SOLAR_NOON.getInternalName(),
+                    SunEvent.SUNSET.getInternalName()};
+            for (int i = 0; i < timeNames.length; i++) {
+                LocalDateTime actualTime = actual.getTime(timeNames[i]);
+                String message = name + ": " + timeNames[i] + " expected " + expected[i] + " but was " + actualTime;
+                assertTrue(message, Duration.between(expected[i], actualTime).abs().compareTo(NOAA_TOLERANCE) <= 0);
+            }
+        }
+    }
+
+    /**
+     * Computes sunrise, solar noon and sunset at UTC with the NOAA solar equations, evaluated at the local noon.
+     */
+    private static LocalDateTime[] getNoaaTimes(Coordinates coordinates, LocalDate localDate) {
+        double latitude = coordinates.getLatitude();
+        double longitude = coordinates.getLongitude();
+        double julianDay = localDate.toEpochDay() + 2440587.5 + 0.5 - longitude / 360;
+        double t = (julianDay - 2451545) / 36525;
+
+        double meanLongitude = (280.46646 + t * (36000.76983 + t * 0.0003032)) % 360;
+        double meanAnomaly = 357.52911 + t * (35999.05029 - 0.0001537 * t);
+        double eccentricity = 0.016708634 - t * (0.000042037 + 0.0000001267 * t);
+        double center = sin(meanAnomaly) * (1.914602 - t * (0.004817 + 0.000014 * t)) +
+                sin(2 * meanAnomaly) * (0.019993 - 0.000101 * t) +
+                sin(3 * meanAnomaly) * 0.000289;
+        double omega = 125.04 - 1934.136 * t;
+        double apparentLongitude = meanLongitude + center - 0.00569 - 0.00478 * sin(omega);
+        double obliquity = 23 + (26 + (21.448 - t * (46.815 + t * (0.00059 - t * 0.001813))) / 60) / 60 +
+                0.00256 * Math.cos(Math.toRadians(omega));
+        double declination = Math.asin(sin(obliquity) * sin(apparentLongitude));
+
+        double y = Math.pow(Math.tan(Math.toRadians(obliquity / 2)), 2);
+        double equationOfTime = 4 * Math.toDegrees(y * sin(2 * meanLongitude) -
+                2 * eccentricity * sin(meanAnomaly) +
+                4 * eccentricity * y * sin(meanAnomaly) * Math.cos(Math.toRadians(2 * meanLongitude)) -
+                0.5 * y * y * sin(4 * meanLongitude) -
+                1.25 * eccentricity * eccentricity * sin(2 * meanAnomaly));
+        double hourAngle = Math.toDegrees(Math.acos(Math.cos(Math.toRadians(90.833)) /
+                (Math.cos(Math.toRadians(latitude)) * Math.cos(declination)) -
+                Math.tan(Math.toRadians(latitude)) * Math.tan(declination)));
+
+        // In minutes after midnight UTC
+        double solarNoon = 720 - 4 * longitude - equationOfTime;
+        LocalDateTime midnight = localDate.atStartOfDay();
+        return new LocalDateTime[]{
+                midnight.plusSeconds((long) ((solarNoon - 4 * hourAngle) * 60)),
+                midnight.plusSeconds((long) (solarNoon * 60)),
+                midnight.plusSeconds((long) ((solarNoon + 4 * hourAngle) * 60))};
+    }
+
+    private static double sin(double degrees) {
+        return Math.sin(Math.toRadians(degrees));
+    }
+
+    private void assertMatchesRemoteApi(String name) throws Exception {
+        RecordedResponse recorded = getRemoteApiResponse(name);
+        SunsetSunriseTimes actual = calculator.getSunsetSunriseTimes(recorded.coordinates, recorded.date);
+
+        for (String timeName : recorded.timeNames) {
+            LocalDateTime expectedTime = recorded.times.getTime(timeName);
+            LocalDateTime actualTime = actual.getTime(timeName);
+            String message = name + ": " + timeName;
+
+            if (expectedTime == null) {
+                assertNull(message, actualTime);
+            } else {
+                assertNotNull(message, actualTime);
+                assertTrue(message + " expected " + expectedTime + " but was " + actualTime,
+                        Duration.between(expectedTime, actualTime).abs().compareTo(TOLERANCE) <= 0);
+            }
+        }
+    }
+
+    private RecordedResponse getRemoteApiResponse(String name) throws Exception {
+        try (InputStream is = getClass().getResourceAsStream("/sunsetsunrise/" + name + ".json")) {
+            JsonNode root = objectMapper.readTree(is);
+            JsonNode response = root.get("response");
+
+            RecordedResponse recorded = new RecordedResponse();
+            recorded.coordinates = new Coordinates(root.get("latitude").asDouble(), root.get("longitude").asDouble());
+            recorded.date = LocalDate.parse(root.get("date").asText());
+            recorded.timeNames = Lists.newArrayList(response.get("results").fieldNames()).toArray(new String[0]);
+            recorded.times = SunsetSunriseRemoteAPI.parseResult(
+                    new ByteArrayInputStream(objectMapper.writeValueAsBytes(response)));
+
+            return recorded;
+        }
+    }
+
+    private static class RecordedResponse {
+        private Coordinates coordinates;
+        private LocalDate date;
+        private String[] timeNames;
+        private SunsetSunriseTimes times;
+    }
+}
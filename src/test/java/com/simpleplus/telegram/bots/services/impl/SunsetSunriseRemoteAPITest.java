@@ -0,0 +1,229 @@
+package com.simpleplus.telegram.bots.services.impl;
+
+import com.simpleplus.telegram.bots.datamodel.Coordinates;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseQuery;
+import com.simpleplus.telegram.bots.datamodel.SunsetSunriseTimes;
+import com.simpleplus.telegram.bots.exceptions.ServiceException;
+import com.simpleplus.telegram.bots.services.SunsetSunriseService;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SunsetSunriseRemoteAPITest {
+    private static final String RESPONSE = "{\"status\":\"OK\",\"message\":\"\"," +
+            "\"results\":{\"sunrise\":\"2021-06-21T03:34:00.000Z\"}}";
+    private static final String BATCH_RESULT = "{\"sunrise\":\"2021-06-21T03:34:00.000Z\"}";
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final List<String> paths = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private volatile int statusCode = 200;
+    private volatile int batchStatusCode = 200;
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/json/", exchange -> {
+            paths.add(exchange.getRequestURI().getPath());
+            maxConcurrentRequests.accumulateAndGet(concurrentRequests.incrementAndGet(), Math::max);
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            concurrentRequests.decrementAndGet();
+
+            String response = RESPONSE;
+            int status = statusCode;
+            if (exchange.getRequestURI().getPath().equals("/json/batch")) {
+                // One result for each query of the body
+                String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                int queries = request.split("\"date\"", -1).length - 1;
+                response = "{\"status\":\"OK\",\"message\":\"\",\"results\":[" +
+                        String.join(",", Collections.nCopies(queries, BATCH_RESULT)) + "]}";
+                status = batchStatusCode;
+            }
+
+            byte[] body = response.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void cleanup() {
+        release.countDown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void timesAreRequestedToTheApi() throws Exception {
+        SunsetSunriseTimes times = createAPI(Duration.ofSeconds(5), 2)
+                .getSunsetSunriseTimes(new Coordinates(41.9, -12.5), LocalDate.of(2021, 6, 21));
+
+        assertEquals(LocalDateTime.of(2021, 6, 21, 3, 34), times.getTime("sunrise"));
+        assertEquals(Collections.singletonList("/json/41.9/-12.5/2021-06-21"), paths);
+    }
+
+    @Test
+    public void concurrentRequestsAreLimited() throws Exception {
+        release = new CountDownLatch(1);
+        SunsetSunriseRemoteAPI api = createAPI(Duration.ofSeconds(5), 2);
+
+        List<CompletableFuture<SunsetSunriseTimes>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(api.getSunsetSunriseTimesAsync(new Coordinates(i, i), LocalDate.of(2021, 6, 21)));
+        }
+
+        while (concurrentRequests.get() < 2) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, api.getWaitingRequests());
+
+        release.countDown();
+        for (CompletableFuture<SunsetSunriseTimes> future : futures) {
+            assertNotNull(SunsetSunriseService.await(future).getTime("sunrise"));
+        }
+        assertEquals(6, paths.size());
+        assertEquals(2, maxConcurrentRequests.get());
+        assertEquals(0, api.getWaitingRequests());
+    }
+
+    @Test
+    public void httpErrorsAndTimeoutsAreServiceExceptions() {
+        statusCode = 500;
+        SunsetSunriseRemoteAPI api = createAPI(Duration.ofSeconds(5), 2);
+        assertThrows(ServiceException.class,
+                () -> api.getSunsetSunriseTimes(new Coordinates(0, 0), LocalDate.of(2021, 6, 21)));
+
+        statusCode = 200;
+        release = new CountDownLatch(1);
+        SunsetSunriseRemoteAPI slowApi = createAPI(Duration.ofMillis(100), 2);
+        assertThrows(ServiceException.class,
+                () -> slowApi.getSunsetSunriseTimes(new Coordinates(0, 0), LocalDate.of(2021, 6, 21)));
+    }
+
+    @Test
+    public void batchesAreSplitAndPosted() throws Exception {
+        List<SunsetSunriseTimes> times = createAPI(Duration.ofSeconds(5), 2, 2).getSunsetSunriseTimes(queries(5));
+
+        assertEquals(5, times.size());
+        for (SunsetSunriseTimes dayTimes : times) {
+            assertEquals(LocalDateTime.of(2021, 6, 21, 3, 34), dayTimes.getTime("sunrise"));
+        }
+        assertEquals(Arrays.asList("/json/batch", "/json/batch", "/json/batch"), paths);
+    }
+
+    @Test
+    public void apisWithoutBatchesGetSingleRequests() throws Exception {
+        batchStatusCode = 404;
+        SunsetSunriseRemoteAPI api = createAPI(Duration.ofSeconds(5), 2, 10);
+
+        assertEquals(3, api.getSunsetSunriseTimes(queries(3)).size());
+        assertEquals("/json/batch", paths.get(0));
+        assertEquals(4, paths.size());
+
+        // The batch endpoint is not tried again
+        paths.clear();
+        assertEquals(3, api.getSunsetSunriseTimes(queries(3)).size());
+        assertFalse(paths.contains("/json/batch"));
+        assertEquals(3, paths.size());
+    }
+
+    @Test
+    public void responseIsParsed() throws Exception {
+        SunsetSunriseTimes times = SunsetSunriseRemoteAPI.parseResult(toStream("{\"status\":\"OK\"," +
+                "\"message\":\"\",\"results\":{" +
+                "\"sunrise\":\"2021-06-21T03:34:12.345Z\"," +
+                "\"sunset\":\"2021-06-21T19:12:00\"," +
+                "\"moonRise\":null," +
+                "\"nested\":{\"ignored\":[1,2]}}}"));
+
+        // Times are truncated to the second
+        assertEquals(LocalDateTime.of(2021, 6, 21, 3, 34, 12), times.getTime("sunrise"));
+        assertEquals(LocalDateTime.of(2021, 6, 21, 19, 12), times.getTime("sunset"));
+        assertNull(times.getTime("moonRise"));
+        assertNull(times.getTime("nested"));
+    }
+
+    @Test
+    public void unknownFieldsAreSkipped() throws Exception {
+        SunsetSunriseTimes times = SunsetSunriseRemoteAPI.parseResult(toStream("{\"extra\":{\"a\":[{}]}," +
+                "\"results\":{\"dawn\":\"2021-06-21T03:00:00Z\"},\"status\":\"OK\"}"));
+
+        assertEquals(LocalDateTime.of(2021, 6, 21, 3, 0), times.getTime("dawn"));
+    }
+
+    @Test
+    public void errorsAreServiceExceptions() {
+        assertThrows(ServiceException.class, () -> SunsetSunriseRemoteAPI.parseResult(
+                toStream("{\"status\":\"KO\",\"message\":\"Invalid date.\",\"results\":{}}")));
+        assertThrows(ServiceException.class, () -> SunsetSunriseRemoteAPI.parseResult(toStream("[]")));
+        assertThrows(ServiceException.class, () -> SunsetSunriseRemoteAPI.parseResult(
+                toStream("{\"status\":\"OK\",\"results\":{\"dawn\":\"yesterday\"}}")));
+        assertThrows(ServiceException.class, () -> SunsetSunriseRemoteAPI.parseResult(toStream("{\"status\":")));
+    }
+
+    @Test
+    public void batchResponseIsParsed() throws Exception {
+        List<SunsetSunriseTimes> times = SunsetSunriseRemoteAPI.parseBatchResult(toStream("{\"status\":\"OK\"," +
+                "\"message\":\"\",\"results\":[{\"sunrise\":\"2021-06-21T03:34:00Z\"}," +
+                "{\"sunrise\":\"2021-06-22T03:35:00Z\"}]}"), 2);
+
+        assertEquals(LocalDateTime.of(2021, 6, 21, 3, 34), times.get(0).getTime("sunrise"));
+        assertEquals(LocalDateTime.of(2021, 6, 22, 3, 35), times.get(1).getTime("sunrise"));
+        assertThrows(ServiceException.class, () -> SunsetSunriseRemoteAPI.parseBatchResult(
+                toStream("{\"status\":\"OK\",\"results\":[{}]}"), 2));
+        assertThrows(ServiceException.class, () -> SunsetSunriseRemoteAPI.parseBatchResult(
+                toStream("{\"status\":\"KO\",\"message\":\"Query 0: Invalid date.\",\"results\":{}}"), 1));
+    }
+
+    private SunsetSunriseRemoteAPI createAPI(Duration requestTimeout, int maxConcurrentRequests) {
+        return createAPI(requestTimeout, maxConcurrentRequests, 100);
+    }
+
+    private SunsetSunriseRemoteAPI createAPI(Duration requestTimeout, int maxConcurrentRequests, int maxBatchSize) {
+        return new SunsetSunriseRemoteAPI("http://127.0.0.1:" + server.getAddress().getPort(),
+                Duration.ofSeconds(1), requestTimeout, maxConcurrentRequests, maxBatchSize);
+    }
+
+    private static List<SunsetSunriseQuery> queries(int count) {
+        List<SunsetSunriseQuery> queries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            queries.add(new SunsetSunriseQuery(new Coordinates(i, i), LocalDate.of(2021, 6, 21).plusDays(i)));
+        }
+        return queries;
+    }
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}